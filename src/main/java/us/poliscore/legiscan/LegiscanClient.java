@@ -1,6 +1,8 @@
 package us.poliscore.legiscan;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
@@ -15,19 +17,24 @@ import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import lombok.SneakyThrows;
+import us.poliscore.legiscan.cache.LegiscanCacheSnapshot;
 import us.poliscore.legiscan.service.CachedLegiscanService;
 import us.poliscore.legiscan.service.LegiscanService;
+import us.poliscore.legiscan.service.RateLimiter;
+import us.poliscore.legiscan.service.RetryPolicy;
+import us.poliscore.legiscan.service.TokenBucketRateLimiter;
 
 public class LegiscanClient {
 	@SneakyThrows
     public static void main(String[] args) {
         Options options = new Options();
 
-        options.addRequiredOption("k", "key", true, "LegiScan API key");
+        options.addOption("k", "key", true, "LegiScan API key (required for every operation except exportCache and importCache)");
         options.addRequiredOption("op", "operation", true, "Operation to perform. Valid values: cacheDataset, getBill, getBillText, getAmendment,\n" +
         	    "getSupplement, getRollCall, getPerson, getSessionList, getMasterList,\n" +
         	    "getMasterListRaw, getSearch, getSearchRaw, getDatasetList, getDataset,\n" +
-        	    "getDatasetRaw, getSessionPeople, getSponsoredList, getMonitorList, getMonitorListRaw, setMonitor");
+        	    "getDatasetRaw, getSessionPeople, getSponsoredList, getMonitorList, getMonitorListRaw, setMonitor,\n" +
+        	    "exportCache, importCache");
 
         options.addOption("i", "id", true, "ID for operations requiring a bill/session/person ID");
         options.addOption("s", "state", true, "State abbreviation (e.g., CA, TX)");
@@ -41,10 +48,15 @@ public class LegiscanClient {
         options.addOption("ac", "action", true, "Action to take for setMonitor: monitor, remove, or set");
         options.addOption("st", "stance", true, "Stance to apply (optional, defaults to 'watch')");
         options.addOption("r", "record", true, "Record filter for monitor list (current, archived, year)");
+        options.addOption("fi", "file", true, "Snapshot archive to write for exportCache, or read for importCache");
+        options.addOption("si", "since", true, "Only export entries cached after this time, in epoch seconds or ISO-8601 (e.g. 2024-01-01T00:00:00Z). Used for exportCache. (default: all entries)");
 
         options.addOption("c", "no_cache", false, "Disable caching (enabled by default)");
         options.addOption("cd", "cache_dir", true, "Directory to use for cached data. (default: <user.home>/appdata/poliscore/legiscan)");
         options.addOption("ct", "cache_ttl", true, "Time to live for cached items in seconds (default: 14400)");
+        options.addOption("rl", "rate_limit", true, "Maximum number of Legiscan requests per second (default: unlimited)");
+        options.addOption("rb", "rate_burst", true, "Maximum number of Legiscan requests which may be made back to back when using rate_limit (default: 1)");
+        options.addOption("up", "update_parallelism", true, "Maximum number of bills to fetch concurrently during cacheDataset (default: 1)");
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -64,11 +76,15 @@ public class LegiscanClient {
         
         validateRequiredArgs(cmd, op);
 
+        RateLimiter rateLimiter = cmd.hasOption("rate_limit")
+                ? new TokenBucketRateLimiter(Double.parseDouble(cmd.getOptionValue("rate_limit")), Integer.parseInt(cmd.getOptionValue("rate_burst", "1")))
+                : RateLimiter.unlimited();
+
         LegiscanService service;
-        if (cmd.hasOption("no_cache") && !op.equals("cacheDataset")) {
-            service = new LegiscanService(apiKey);
+        if (cmd.hasOption("no_cache") && !isCacheOperation(op)) {
+            service = new LegiscanService(apiKey, JsonMapper.builder().addModule(new JavaTimeModule()).build(), rateLimiter, RetryPolicy.defaults());
         } else {
-            CachedLegiscanService.Builder builder = CachedLegiscanService.builder(apiKey);
+            CachedLegiscanService.Builder builder = CachedLegiscanService.builder(apiKey).withRateLimiter(rateLimiter);
 
             if (cmd.hasOption("cache_dir")) {
                 builder.withCacheDirectory(new File(cmd.getOptionValue("cache_dir")));
@@ -78,95 +94,119 @@ public class LegiscanClient {
                 builder.withCacheTttl(Integer.parseInt(cmd.getOptionValue("cache_ttl")));
             }
 
+            if (cmd.hasOption("update_parallelism")) {
+                builder.withUpdateParallelism(Integer.parseInt(cmd.getOptionValue("update_parallelism")));
+            }
+
             service = builder.build();
         }
 
         ObjectMapper outputMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
 
-        switch (op) {
-        	case "cacheDataset" -> {
-        		var cacheService = (CachedLegiscanService)service;
-        		var cached = cacheService.cacheDataset(cmd.getOptionValue("state"), Integer.parseInt(cmd.getOptionValue("year")), cmd.hasOption("special"));
-        		System.out.println("Successfully loaded [" + cached.getDataset().getSessionName() + "] into cache [" + cacheService.getCache().toString() + "]. Dataset contains " + cached.getPeople().size() + " people, " + cached.getBills().size()+ " bills, and " + cached.getVotes().size()+ " votes.");
-        	}
-            case "getBill" -> System.out.println(outputMapper.writeValueAsString(service.getBill(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getBillText" -> System.out.println(outputMapper.writeValueAsString(service.getBillText(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getAmendment" -> System.out.println(outputMapper.writeValueAsString(service.getAmendment(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getSupplement" -> System.out.println(outputMapper.writeValueAsString(service.getSupplement(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getRollCall" -> System.out.println(outputMapper.writeValueAsString(service.getRollCall(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getPerson" -> System.out.println(outputMapper.writeValueAsString(service.getPerson(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getSessionList" -> System.out.println(outputMapper.writeValueAsString(service.getSessionList(cmd.getOptionValue("state"))));
-            case "getMasterList" -> {
-                if (cmd.hasOption("id")) System.out.println(outputMapper.writeValueAsString(service.getMasterList(Integer.parseInt(cmd.getOptionValue("id")))));
-                else if (cmd.hasOption("state")) System.out.println(outputMapper.writeValueAsString(service.getMasterList(cmd.getOptionValue("state"))));
-                else throw new IllegalArgumentException("getMasterList requires --id or --state");
-            }
-            case "getMasterListRaw" -> {
-                if (cmd.hasOption("id")) System.out.println(outputMapper.writeValueAsString(service.getMasterListRaw(Integer.parseInt(cmd.getOptionValue("id")))));
-                else if (cmd.hasOption("state")) System.out.println(outputMapper.writeValueAsString(service.getMasterListRaw(cmd.getOptionValue("state"))));
-                else throw new IllegalArgumentException("getMasterListRaw requires --id or --state");
-            }
-            case "getSearch" -> {
-                String query = cmd.getOptionValue("query");
-                int page = Integer.parseInt(cmd.getOptionValue("page", "1"));
-                if (cmd.hasOption("id"))
-                    System.out.println(outputMapper.writeValueAsString(service.getSearch(Integer.parseInt(cmd.getOptionValue("id")), query, page)));
-                else
-                    System.out.println(outputMapper.writeValueAsString(service.getSearch(cmd.getOptionValue("state"), query,
-                            Integer.parseInt(cmd.getOptionValue("year", "2")), page)));
-            }
-            case "getSearchRaw" -> {
-                String query = cmd.getOptionValue("query");
-                int page = Integer.parseInt(cmd.getOptionValue("page", "1"));
-                if (cmd.hasOption("id"))
-                    System.out.println(outputMapper.writeValueAsString(service.getSearchRaw(Integer.parseInt(cmd.getOptionValue("id")), query, page)));
-                else
-                    System.out.println(outputMapper.writeValueAsString(service.getSearchRaw(cmd.getOptionValue("state"), query,
-                            Integer.parseInt(cmd.getOptionValue("year", "2")),
-                            cmd.hasOption("id") ? Integer.parseInt(cmd.getOptionValue("id")) : null,
-                            page)));
-            }
-            case "getDatasetList" -> System.out.println(outputMapper.writeValueAsString(service.getDatasetList(cmd.getOptionValue("state"),
-                    cmd.hasOption("year") ? Integer.parseInt(cmd.getOptionValue("year")) : null)));
-            case "getDataset" -> System.out.println(outputMapper.writeValueAsString(service.getDataset(
-                    Integer.parseInt(cmd.getOptionValue("id")),
-                    cmd.getOptionValue("access_key"),
-                    cmd.getOptionValue("format", "json")
-            )));
-            case "getDatasetRaw" -> System.out.write(service.getDatasetRaw(
-                    Integer.parseInt(cmd.getOptionValue("id")),
-                    cmd.getOptionValue("access_key"),
-                    cmd.getOptionValue("format", "json")
-            ));
-            case "getSessionPeople" -> System.out.println(outputMapper.writeValueAsString(service.getSessionPeople(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getSponsoredList" -> System.out.println(outputMapper.writeValueAsString(service.getSponsoredList(Integer.parseInt(cmd.getOptionValue("id")))));
-            case "getMonitorList" -> {
-                String record = cmd.getOptionValue("record", "current");
-                System.out.println(outputMapper.writeValueAsString(service.getMonitorList(record)));
-            }
-            case "getMonitorListRaw" -> {
-                String record = cmd.getOptionValue("record", "current");
-                System.out.println(outputMapper.writeValueAsString(service.getMonitorListRaw(record)));
-            }
-            case "setMonitor" -> {
-                require(cmd, "monitor_ids");
-                require(cmd, "action");
-                List<Integer> ids = List.of(cmd.getOptionValue("monitor_ids").split(","))
-                                        .stream()
-                                        .map(String::trim)
-                                        .map(Integer::parseInt)
-                                        .toList();
-                String action = cmd.getOptionValue("action");
-                String stance = cmd.getOptionValue("stance", "watch");
-                System.out.println(outputMapper.writeValueAsString(service.setMonitor(ids, action, stance)));
-            }
+        // Closed however the operation ends, so that the executor, cache writers and index file are always released
+        try (service) {
+            switch (op) {
+            	case "exportCache" -> {
+            		var cache = ((CachedLegiscanService) service).getCache();
+            		int exported = new LegiscanCacheSnapshot(outputMapper).exportCache(cache, Path.of(cmd.getOptionValue("file")), parseSince(cmd.getOptionValue("since")));
+            		System.out.println("Exported " + exported + " entries to " + cmd.getOptionValue("file"));
+            	}
+            	case "importCache" -> {
+            		var cache = ((CachedLegiscanService) service).getCache();
+            		int imported = new LegiscanCacheSnapshot(outputMapper).importCache(cache, Path.of(cmd.getOptionValue("file")), Runtime.getRuntime().availableProcessors());
+            		System.out.println("Imported " + imported + " entries from " + cmd.getOptionValue("file"));
+            	}
+            	case "cacheDataset" -> {
+            		var cacheService = (CachedLegiscanService)service;
+            		var cached = cacheService.cacheDataset(cmd.getOptionValue("state"), Integer.parseInt(cmd.getOptionValue("year")), cmd.hasOption("special"));
+            		System.out.println("Successfully loaded [" + cached.getDataset().getSessionName() + "] into cache [" + cacheService.getCache().toString() + "]. Dataset contains " + cached.getPeople().size() + " people, " + cached.getBills().size()+ " bills, and " + cached.getVotes().size()+ " votes.");
+            	}
+                case "getBill" -> System.out.println(outputMapper.writeValueAsString(service.getBill(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getBillText" -> System.out.println(outputMapper.writeValueAsString(service.getBillText(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getAmendment" -> System.out.println(outputMapper.writeValueAsString(service.getAmendment(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getSupplement" -> System.out.println(outputMapper.writeValueAsString(service.getSupplement(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getRollCall" -> System.out.println(outputMapper.writeValueAsString(service.getRollCall(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getPerson" -> System.out.println(outputMapper.writeValueAsString(service.getPerson(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getSessionList" -> System.out.println(outputMapper.writeValueAsString(service.getSessionList(cmd.getOptionValue("state"))));
+                case "getMasterList" -> {
+                    if (cmd.hasOption("id")) System.out.println(outputMapper.writeValueAsString(service.getMasterList(Integer.parseInt(cmd.getOptionValue("id")))));
+                    else if (cmd.hasOption("state")) System.out.println(outputMapper.writeValueAsString(service.getMasterList(cmd.getOptionValue("state"))));
+                    else throw new IllegalArgumentException("getMasterList requires --id or --state");
+                }
+                case "getMasterListRaw" -> {
+                    if (cmd.hasOption("id")) System.out.println(outputMapper.writeValueAsString(service.getMasterListRaw(Integer.parseInt(cmd.getOptionValue("id")))));
+                    else if (cmd.hasOption("state")) System.out.println(outputMapper.writeValueAsString(service.getMasterListRaw(cmd.getOptionValue("state"))));
+                    else throw new IllegalArgumentException("getMasterListRaw requires --id or --state");
+                }
+                case "getSearch" -> {
+                    String query = cmd.getOptionValue("query");
+                    int page = Integer.parseInt(cmd.getOptionValue("page", "1"));
+                    if (cmd.hasOption("id"))
+                        System.out.println(outputMapper.writeValueAsString(service.getSearch(Integer.parseInt(cmd.getOptionValue("id")), query, page)));
+                    else
+                        System.out.println(outputMapper.writeValueAsString(service.getSearch(cmd.getOptionValue("state"), query,
+                                Integer.parseInt(cmd.getOptionValue("year", "2")), page)));
+                }
+                case "getSearchRaw" -> {
+                    String query = cmd.getOptionValue("query");
+                    int page = Integer.parseInt(cmd.getOptionValue("page", "1"));
+                    if (cmd.hasOption("id"))
+                        System.out.println(outputMapper.writeValueAsString(service.getSearchRaw(Integer.parseInt(cmd.getOptionValue("id")), query, page)));
+                    else
+                        System.out.println(outputMapper.writeValueAsString(service.getSearchRaw(cmd.getOptionValue("state"), query,
+                                Integer.parseInt(cmd.getOptionValue("year", "2")),
+                                cmd.hasOption("id") ? Integer.parseInt(cmd.getOptionValue("id")) : null,
+                                page)));
+                }
+                case "getDatasetList" -> System.out.println(outputMapper.writeValueAsString(service.getDatasetList(cmd.getOptionValue("state"),
+                        cmd.hasOption("year") ? Integer.parseInt(cmd.getOptionValue("year")) : null)));
+                case "getDataset" -> System.out.println(outputMapper.writeValueAsString(service.getDataset(
+                        Integer.parseInt(cmd.getOptionValue("id")),
+                        cmd.getOptionValue("access_key"),
+                        cmd.getOptionValue("format", "json")
+                )));
+                case "getDatasetRaw" -> System.out.write(service.getDatasetRaw(
+                        Integer.parseInt(cmd.getOptionValue("id")),
+                        cmd.getOptionValue("access_key"),
+                        cmd.getOptionValue("format", "json")
+                ));
+                case "getSessionPeople" -> System.out.println(outputMapper.writeValueAsString(service.getSessionPeople(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getSponsoredList" -> System.out.println(outputMapper.writeValueAsString(service.getSponsoredList(Integer.parseInt(cmd.getOptionValue("id")))));
+                case "getMonitorList" -> {
+                    String record = cmd.getOptionValue("record", "current");
+                    System.out.println(outputMapper.writeValueAsString(service.getMonitorList(record)));
+                }
+                case "getMonitorListRaw" -> {
+                    String record = cmd.getOptionValue("record", "current");
+                    System.out.println(outputMapper.writeValueAsString(service.getMonitorListRaw(record)));
+                }
+                case "setMonitor" -> {
+                    require(cmd, "monitor_ids");
+                    require(cmd, "action");
+                    List<Integer> ids = List.of(cmd.getOptionValue("monitor_ids").split(","))
+                                            .stream()
+                                            .map(String::trim)
+                                            .map(Integer::parseInt)
+                                            .toList();
+                    String action = cmd.getOptionValue("action");
+                    String stance = cmd.getOptionValue("stance", "watch");
+                    System.out.println(outputMapper.writeValueAsString(service.setMonitor(ids, action, stance)));
+                }
 
-            default -> throw new IllegalArgumentException("Unknown operation: " + op);
+                default -> throw new IllegalArgumentException("Unknown operation: " + op);
+            }
         }
     }
     
     private static void validateRequiredArgs(CommandLine cmd, String op) {
+        if (!op.equals("exportCache") && !op.equals("importCache")) {
+            require(cmd, "key");
+        }
+
         switch (op) {
+            case "exportCache", "importCache" -> {
+                require(cmd, "file");
+            }
             case "cacheDataset" -> {
                 require(cmd, "state");
                 require(cmd, "year");
@@ -203,6 +243,20 @@ public class LegiscanClient {
         }
     }
 
+    private static boolean isCacheOperation(String op) {
+        return op.equals("cacheDataset") || op.equals("exportCache") || op.equals("importCache");
+    }
+
+    private static long parseSince(String since) {
+        if (since == null) return 0;
+
+        try {
+            return Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            return Instant.parse(since).getEpochSecond();
+        }
+    }
+
     private static void require(CommandLine cmd, String opt) {
         if (!cmd.hasOption(opt)) {
             throw new IllegalArgumentException("Missing required option: --" + opt);
@@ -0,0 +1,212 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import lombok.Getter;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+
+/**
+ * Reads and writes cache entries in any of the supported {@link CacheFormat}s.
+ * 
+ * Binary formats begin with a four byte header: a three byte magic number followed by the format id. JSON entries have no header, so that
+ * entries written before binary formats existed remain readable. Reads detect the format from the data itself, regardless of the format
+ * this serializer writes.
+ */
+public class CacheEntrySerializer {
+	
+	private static final byte[] MAGIC = new byte[] { (byte) 0xC5, 'L', 'C' };
+	
+	private static final int HEADER_LENGTH = MAGIC.length + 1;
+	
+	@Getter
+	private final CacheFormat format;
+	
+	private final ObjectMapper objectMapper;
+	
+	private final SmileFactory smileFactory = new SmileFactory();
+	
+	/**
+	 * @param objectMapper The mapper to bind entries with. Binary entries are read and written through it with a Smile parser or generator, so the
+	 *  same modules and configuration apply to every format.
+	 * @param format The format to write entries in
+	 */
+	public CacheEntrySerializer(ObjectMapper objectMapper, CacheFormat format) {
+		this.format = format;
+		this.objectMapper = objectMapper;
+		this.smileFactory.setStreamReadConstraints(objectMapper.getFactory().streamReadConstraints());
+	}
+	
+	public void write(OutputStream out, CachedEntry<?> entry) throws IOException {
+		if (!format.isBinary()) {
+			objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, entry);
+			return;
+		}
+		
+		out.write(MAGIC);
+		out.write(format.getId());
+		
+		if (format == CacheFormat.SMILE_DEFLATE) {
+			var deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				var deflated = new DeflaterOutputStream(out, deflater);
+				writeSmile(deflated, entry);
+				deflated.finish();
+			} finally {
+				deflater.end();
+			}
+		} else {
+			writeSmile(out, entry);
+		}
+	}
+	
+	private void writeSmile(OutputStream out, CachedEntry<?> entry) throws IOException {
+		try (var generator = smileFactory.createGenerator(out)) {
+			// The caller owns the stream
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			objectMapper.writeValue(generator, entry);
+		}
+	}
+	
+	public byte[] serialize(CachedEntry<?> entry) throws IOException {
+		var out = new ByteArrayOutputStream();
+		write(out, entry);
+		return out.toByteArray();
+	}
+	
+	public CachedEntry<Object> read(byte[] data) throws IOException {
+		return read(new ByteArrayInputStream(data), objectMapper.constructType(Object.class), true);
+	}
+	
+	public <T> CachedEntry<T> read(byte[] data, TypeReference<T> valueType) throws IOException {
+		return read(new ByteArrayInputStream(data), objectMapper.constructType(valueType), true);
+	}
+	
+	/**
+	 * Reads an entry, binding its value directly to the given type in a single pass, rather than first materializing it as generic maps.
+	 * 
+	 * @param bindExpired If false, and the entry is found to be expired before its value is reached, the value is skipped without being bound and is
+	 *  left null
+	 */
+	public <T> CachedEntry<T> read(InputStream in, TypeReference<T> valueType, boolean bindExpired) throws IOException {
+		return read(in, objectMapper.constructType(valueType), bindExpired);
+	}
+	
+	public <T> CachedEntry<T> read(InputStream in, JavaType valueType, boolean bindExpired) throws IOException {
+		return parse(in, parser -> {
+			expectEntry(parser);
+			
+			var entry = new CachedEntry<T>();
+			
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.currentName();
+				parser.nextToken();
+				
+				switch (field) {
+					case "timestamp" -> entry.setTimestamp(parser.getLongValue());
+					case "ttlSecs" -> entry.setTtlSecs(parser.getLongValue());
+					case "value" -> {
+						if (bindExpired || !entry.isExpired()) {
+							entry.setValue(objectMapper.readValue(parser, valueType));
+						} else {
+							parser.skipChildren();
+						}
+					}
+					default -> parser.skipChildren();
+				}
+			}
+			
+			return entry;
+		});
+	}
+	
+	/**
+	 * Reads only the timestamp and TTL of an entry. Entries are written with their metadata ahead of their value, so this stops after the first few
+	 * bytes, without reading or parsing the value.
+	 */
+	public CachedEntryMetadata readMetadata(InputStream in) throws IOException {
+		return parse(in, parser -> {
+			expectEntry(parser);
+			
+			var metadata = new CachedEntryMetadata();
+			boolean timestamp = false, ttl = false;
+			
+			while (!(timestamp && ttl) && parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.currentName();
+				parser.nextToken();
+				
+				switch (field) {
+					case "timestamp" -> { metadata.setTimestamp(parser.getLongValue()); timestamp = true; }
+					case "ttlSecs" -> { metadata.setTtlSecs(parser.getLongValue()); ttl = true; }
+					default -> parser.skipChildren(); // The value, in entries written before the metadata was ordered first
+				}
+			}
+			
+			return metadata;
+		});
+	}
+	
+	private static void expectEntry(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw JsonMappingException.from(parser, "Expected a cache entry object");
+		}
+	}
+	
+	private <R> R parse(InputStream in, ParserReader<R> reader) throws IOException {
+		byte[] header = in.readNBytes(HEADER_LENGTH);
+		var format = detect(header);
+		
+		if (!format.isBinary()) {
+			try (var parser = objectMapper.getFactory().createParser(new SequenceInputStream(new ByteArrayInputStream(header), in))) {
+				return reader.read(parser);
+			}
+		}
+		
+		if (format == CacheFormat.SMILE_DEFLATE) {
+			var inflater = new Inflater();
+			try (var parser = smileFactory.createParser(new InflaterInputStream(in, inflater, 8192))) {
+				return reader.read(parser);
+			} finally {
+				inflater.end();
+			}
+		}
+		
+		try (var parser = smileFactory.createParser(in)) {
+			return reader.read(parser);
+		}
+	}
+	
+	@FunctionalInterface
+	private interface ParserReader<R> {
+		R read(JsonParser parser) throws IOException;
+	}
+	
+	/**
+	 * @return The format the given serialized entry was written in
+	 */
+	public static CacheFormat detect(byte[] data) {
+		if (data.length < HEADER_LENGTH || data[0] != MAGIC[0] || data[1] != MAGIC[1] || data[2] != MAGIC[2]) {
+			return CacheFormat.JSON;
+		}
+		
+		return CacheFormat.fromId(data[3]);
+	}
+}
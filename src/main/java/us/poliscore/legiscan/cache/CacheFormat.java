@@ -0,0 +1,46 @@
+package us.poliscore.legiscan.cache;
+
+import lombok.Getter;
+
+/**
+ * The on-disk encoding of a cache entry.
+ */
+public enum CacheFormat {
+	/**
+	 * Human readable, pretty printed JSON. The original format, and still the default.
+	 */
+	JSON(0, "cached.json"),
+	
+	/**
+	 * Jackson Smile, a binary encoding of the JSON data model. Smaller than JSON and considerably cheaper to parse.
+	 */
+	SMILE(1, "cached.bin"),
+	
+	/**
+	 * Smile, compressed with deflate. The smallest format, at the cost of some CPU on every read and write.
+	 */
+	SMILE_DEFLATE(2, "cached.bin");
+	
+	@Getter
+	private final int id;
+	
+	@Getter
+	private final String fileName;
+	
+	private CacheFormat(int id, String fileName) {
+		this.id = id;
+		this.fileName = fileName;
+	}
+	
+	public boolean isBinary() {
+		return this != JSON;
+	}
+	
+	public static CacheFormat fromId(int id) {
+		for (var format : values()) {
+			if (format.id == id) return format;
+		}
+		
+		throw new IllegalArgumentException("Unknown cache format id: " + id);
+	}
+}
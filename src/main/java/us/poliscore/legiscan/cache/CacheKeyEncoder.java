@@ -0,0 +1,93 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reversibly encodes a cache key component as a file name. Letters, digits, '-' and '_' are kept as they are, and every other character is written as
+ * '~' followed by the two hex digits of each of its UTF-8 bytes, so that '.', '/' and '~' itself never appear unescaped. Components made up only of
+ * safe characters, which is nearly all of them, are returned as they are without allocating.
+ *
+ * The empty string, which would not be a valid file name, is encoded as a lone '~'.
+ */
+public final class CacheKeyEncoder {
+
+	private static final char ESCAPE = '~';
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final boolean[] SAFE = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) SAFE[c] = true;
+		for (char c = 'A'; c <= 'Z'; c++) SAFE[c] = true;
+		for (char c = '0'; c <= '9'; c++) SAFE[c] = true;
+		SAFE['-'] = true;
+		SAFE['_'] = true;
+	}
+
+	private CacheKeyEncoder() {
+	}
+
+	public static String encode(String component) {
+		if (component.isEmpty()) return String.valueOf(ESCAPE);
+
+		int i = 0;
+		while (i < component.length() && isSafe(component.charAt(i))) i++;
+		if (i == component.length()) return component;
+
+		var out = new StringBuilder(component.length() + 8).append(component, 0, i);
+
+		while (i < component.length()) {
+			char c = component.charAt(i);
+
+			if (isSafe(c)) {
+				out.append(c);
+				i++;
+			} else {
+				int codePoint = component.codePointAt(i);
+				for (byte b : Character.toString(codePoint).getBytes(StandardCharsets.UTF_8)) {
+					out.append(ESCAPE).append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+				}
+				i += Character.charCount(codePoint);
+			}
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the name is not the output of {@link #encode(String)}
+	 */
+	public static String decode(String name) {
+		if (name.length() == 1 && name.charAt(0) == ESCAPE) return "";
+		if (name.indexOf(ESCAPE) < 0) return name;
+
+		var bytes = new ByteArrayOutputStream(name.length());
+
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			if (c == ESCAPE) {
+				if (i + 2 >= name.length()) throw new IllegalArgumentException("Truncated escape in encoded key: " + name);
+
+				int hi = Character.digit(name.charAt(i + 1), 16);
+				int lo = Character.digit(name.charAt(i + 2), 16);
+				if (hi < 0 || lo < 0) throw new IllegalArgumentException("Invalid escape in encoded key: " + name);
+
+				bytes.write((hi << 4) | lo);
+				i += 2;
+			} else if (isSafe(c)) {
+				bytes.write(c);
+			} else {
+				throw new IllegalArgumentException("Unescaped character in encoded key: " + name);
+			}
+		}
+
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	private static boolean isSafe(char c) {
+		return c < 128 && SAFE[c];
+	}
+}
@@ -0,0 +1,170 @@
+package us.poliscore.legiscan.cache;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import us.poliscore.legiscan.service.CachedLegiscanService;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+import us.poliscore.legiscan.view.LegiscanSessionView;
+
+/**
+ * Decides how long a value put into a cache lives before it expires. A TTL of 0 means the value never expires.
+ *
+ * The TTL is chosen, in order, by:
+ * - The value's status, if status rules are enabled. Bills which are completed, and anything belonging to a session which has adjourned sine die,
+ *   no longer change and so never expire. Bills which are still active may be given their own, shorter, TTL.
+ * - The TTL configured for the key's operation, such as 'getsessionlist'.
+ * - 0 for static operations (see {@link CachedLegiscanService#isCacheKeyStatic(String)}), and the default TTL for everything else.
+ *
+ * Subclasses may override {@link #ttlSecs(String, Object)} to add rules of their own.
+ */
+public class CacheTtlPolicy {
+
+	@Getter
+	private final long defaultTtlSecs;
+
+	private final Map<String, Long> operationTtlSecs;
+
+	@Getter
+	private final boolean statusAware;
+
+	private final Long activeBillTtlSecs;
+
+	protected CacheTtlPolicy(long defaultTtlSecs, Map<String, Long> operationTtlSecs, boolean statusAware, Long activeBillTtlSecs) {
+		this.defaultTtlSecs = defaultTtlSecs;
+		this.operationTtlSecs = Map.copyOf(operationTtlSecs);
+		this.statusAware = statusAware;
+		this.activeBillTtlSecs = activeBillTtlSecs;
+	}
+
+	/**
+	 * @param defaultTtlSecs If > 0, applies to non-static entries. 0 caches them forever.
+	 * @return A policy which never expires static entries and gives every other entry the same TTL, whatever its value
+	 */
+	public static CacheTtlPolicy fixed(long defaultTtlSecs) {
+		return builder(defaultTtlSecs).build();
+	}
+
+	/**
+	 * @param defaultTtlSecs If > 0, applies to entries which no other rule covers
+	 * @return A policy which caches session lists for a day and master lists for 15 minutes, and never expires completed bills or anything
+	 *  belonging to a session which has adjourned sine die
+	 */
+	public static CacheTtlPolicy statusAware(long defaultTtlSecs) {
+		return builder(defaultTtlSecs)
+				.withOperationTtl("getsessionlist", Duration.ofDays(1))
+				.withOperationTtl("getmasterlist", Duration.ofMinutes(15))
+				.withOperationTtl("getmasterlistraw", Duration.ofMinutes(15))
+				.withStatusRules()
+				.build();
+	}
+
+	public static Builder builder(long defaultTtlSecs) {
+		return new Builder(defaultTtlSecs);
+	}
+
+	/**
+	 * @param key The cache key the value is being put under
+	 * @param value The value being put. Usually a LegiscanResponse, but may be any object.
+	 * @return The TTL, in seconds, of the value. 0 if the value never expires.
+	 */
+	public long ttlSecs(String key, Object value) {
+		if (statusAware && value instanceof LegiscanResponse response) {
+			Long statusTtl = statusTtlSecs(response);
+			if (statusTtl != null) return statusTtl;
+		}
+
+		Long operationTtl = operationTtlSecs.get(operation(key));
+		if (operationTtl != null) return operationTtl;
+
+		return CachedLegiscanService.isCacheKeyStatic(key) ? 0 : defaultTtlSecs;
+	}
+
+	/**
+	 * @return The TTL implied by the response's status, or null if its status does not decide its TTL
+	 */
+	protected Long statusTtlSecs(LegiscanResponse response) {
+		if (response.getBill() != null) {
+			LegiscanBillView bill = response.getBill();
+
+			if (Integer.valueOf(1).equals(bill.getCompleted()) || isAdjourned(bill.getSession())) return 0L;
+
+			return activeBillTtlSecs;
+		}
+
+		if (response.getMasterlist() != null && isAdjourned(response.getMasterlist().getSession())) return 0L;
+
+		if (response.getSessionpeople() != null && isAdjourned(response.getSessionpeople().getSession())) return 0L;
+
+		return null;
+	}
+
+	private static boolean isAdjourned(LegiscanSessionView session) {
+		return session != null && Integer.valueOf(1).equals(session.getSineDie());
+	}
+
+	private static String operation(String key) {
+		int slash = key.indexOf('/');
+		return (slash < 0 ? key : key.substring(0, slash)).toLowerCase();
+	}
+
+	@Override
+	public String toString() {
+		return "Cache TTL Policy (default " + defaultTtlSecs + "s, operations " + operationTtlSecs + (statusAware ? ", status aware" : "") + ")";
+	}
+
+	public static class Builder {
+		protected final long defaultTtlSecs;
+		protected final Map<String, Long> operationTtlSecs = new HashMap<String, Long>();
+		protected boolean statusAware = false;
+		protected Long activeBillTtlSecs;
+
+		public Builder(long defaultTtlSecs) {
+			this.defaultTtlSecs = defaultTtlSecs;
+		}
+
+		/**
+		 * @param operation The Legiscan operation, which is the first part of a cache key, such as 'getsessionlist'. Case insensitive.
+		 * @param ttl How long values cached for the operation live. Zero means they never expire.
+		 * @return
+		 */
+		public Builder withOperationTtl(String operation, Duration ttl) {
+			if (ttl.isNegative()) throw new IllegalArgumentException("TTL must not be negative");
+
+			this.operationTtlSecs.put(operation.toLowerCase(), ttl.toSeconds());
+			return this;
+		}
+
+		/**
+		 * Never expires completed bills, or bills, master lists and session people belonging to a session which has adjourned sine die. These take
+		 * precedence over the TTL configured for their operation.
+		 *
+		 * @return
+		 */
+		public Builder withStatusRules() {
+			this.statusAware = true;
+			return this;
+		}
+
+		/**
+		 * Enables status rules, and gives bills which are still active their own TTL.
+		 *
+		 * @param ttl How long bills which are neither completed nor in an adjourned session live
+		 * @return
+		 */
+		public Builder withActiveBillTtl(Duration ttl) {
+			if (ttl.isNegative()) throw new IllegalArgumentException("TTL must not be negative");
+
+			this.statusAware = true;
+			this.activeBillTtlSecs = ttl.toSeconds();
+			return this;
+		}
+
+		public CacheTtlPolicy build() {
+			return new CacheTtlPolicy(defaultTtlSecs, operationTtlSecs, statusAware, activeBillTtlSecs);
+		}
+	}
+}
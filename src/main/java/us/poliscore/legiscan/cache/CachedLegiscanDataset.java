@@ -1,22 +1,37 @@
 package us.poliscore.legiscan.cache;
 
-import java.io.File;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
-import net.lingala.zip4j.ZipFile;
-import us.poliscore.legiscan.PoliscoreLegiscanUtil;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
 import us.poliscore.legiscan.service.CachedLegiscanService;
 import us.poliscore.legiscan.view.LegiscanBillView;
 import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanMasterListView.BillSummary;
 import us.poliscore.legiscan.view.LegiscanPeopleView;
 import us.poliscore.legiscan.view.LegiscanResponse;
 import us.poliscore.legiscan.view.LegiscanRollCallView;
@@ -25,6 +40,11 @@ public class CachedLegiscanDataset {
 	
 	private static final Logger LOGGER = Logger.getLogger(CachedLegiscanDataset.class.getName());
 	
+	/**
+	 * The number of entries read from or written to the cache in one batch, while bulk loading and updating.
+	 */
+	protected static final int BATCH_SIZE = 500;
+	
 	@Getter
 	protected CachedLegiscanService legiscan;
 	
@@ -33,14 +53,28 @@ public class CachedLegiscanDataset {
 	
 	protected ObjectMapper objectMapper;
 	
-	@Getter
-	protected Map<Integer, LegiscanBillView> bills = new HashMap<Integer, LegiscanBillView>();
+	protected Map<Integer, LegiscanBillView> bills = new ConcurrentHashMap<Integer, LegiscanBillView>();
+	
+	protected Map<Integer, LegiscanPeopleView> people = new ConcurrentHashMap<Integer, LegiscanPeopleView>();
 	
+	protected Map<Integer, LegiscanRollCallView> votes = new ConcurrentHashMap<Integer, LegiscanRollCallView>();
+	
+	/**
+	 * The manifest of a skipped dataset, whose people, bills and votes are read back from the cache the first time they are asked for.
+	 */
+	protected volatile DatasetManifest unloaded;
+	
+	/**
+	 * True if the last update skipped the bulk load, because the dataset had not changed since it was last imported.
+	 */
 	@Getter
-	protected Map<Integer, LegiscanPeopleView> people = new HashMap<Integer, LegiscanPeopleView>();
+	protected boolean bulkLoadSkipped = false;
 	
+	/**
+	 * Bills which could not be fetched from Legiscan during the last update, keyed by bill id.
+	 */
 	@Getter
-	protected Map<Integer, LegiscanRollCallView> votes = new HashMap<Integer, LegiscanRollCallView>();
+	protected Map<Integer, Throwable> failures = new ConcurrentHashMap<Integer, Throwable>();
 	
 	public CachedLegiscanDataset(CachedLegiscanService client, LegiscanDatasetView dataset, ObjectMapper objectMapper)
 	{
@@ -52,148 +86,465 @@ public class CachedLegiscanDataset {
 	/**
 	 * Fetches the Legiscan dataset and populates the cache with the most up-to-date data. Calling this method will populate the bills, people, and votes
 	 * member variables. This method is invoked on your behalf when invoking LegiscanClient.cacheDataset.
+	 * 
+	 * If this version of the dataset (as identified by its dataset_hash) has already been imported into the cache, the bulk load is skipped and only
+	 * the masterlist diff is performed. In that case the bills, people and votes are read back from the cache when they are first asked for. If any
+	 * of them is no longer cached, the dataset is bulk loaded after all.
 	 */
 	public void update()
+	{
+		update(false);
+	}
+	
+	/**
+	 * @param force If true, the dataset is bulk loaded even if this version of it has already been imported into the cache.
+	 * @see #update()
+	 */
+	public void update(boolean force)
 	{
 		LOGGER.info("Updating dataset [" + dataset.getSessionName() + "] from Legiscan.");
 		
-		bulkLoad();
+		var manifest = force ? null : legiscan.getCache().getOrExpire(DatasetManifest.getCacheKey(dataset.getSessionId()), new TypeReference<DatasetManifest>() {}).orElse(null);
+		
+		if (manifest != null && dataset.getDatasetHash() != null && dataset.getDatasetHash().equals(manifest.getDatasetHash()) && isCached(manifest)) {
+			LOGGER.info("Dataset [" + dataset.getSessionName() + "] is unchanged since it was imported at [" + Instant.ofEpochSecond(manifest.getImportedAt()) + "]. Skipped bulk load.");
+			unloaded = manifest;
+			bulkLoadSkipped = true;
+		} else {
+			unloaded = null;
+			bulkLoad();
+			
+			// Never expires. The dataset is imported again if its hash changes or any of the entries it lists is no longer cached.
+			legiscan.getCache().put(DatasetManifest.getCacheKey(dataset.getSessionId()), new DatasetManifest(dataset.getSessionId(), dataset.getDatasetHash(),
+					Instant.now().getEpochSecond(), List.copyOf(people.keySet()), List.copyOf(bills.keySet()), List.copyOf(votes.keySet())), 0);
+			bulkLoadSkipped = false;
+		}
+		
 		updateBills();
 		
 		LOGGER.info("Dataset [" + dataset.getSessionName() + "] successfully updated.");
 	}
 	
+	public Map<Integer, LegiscanBillView> getBills()
+	{
+		loadFromCache();
+		return bills;
+	}
+	
+	public Map<Integer, LegiscanPeopleView> getPeople()
+	{
+		loadFromCache();
+		return people;
+	}
+	
+	public Map<Integer, LegiscanRollCallView> getVotes()
+	{
+		loadFromCache();
+		return votes;
+	}
+	
+	/**
+	 * Checks that every entry listed by the manifest of an unchanged dataset is still cached, from its entry metadata alone.
+	 * 
+	 * @return false if the manifest does not list the dataset's entries, or if any of them is no longer cached
+	 */
+	protected boolean isCached(DatasetManifest manifest)
+	{
+		if (manifest.getPeopleIds() == null || manifest.getBillIds() == null || manifest.getRollCallIds() == null) return false;
+		
+		boolean cached = isCached(manifest.getPeopleIds(), LegiscanPeopleView::getCacheKey)
+				&& isCached(manifest.getBillIds(), LegiscanBillView::getCacheKey)
+				&& isCached(manifest.getRollCallIds(), LegiscanRollCallView::getCacheKey);
+		
+		if (!cached) {
+			LOGGER.info("Entries of dataset [" + dataset.getSessionName() + "] are no longer cached. Bulk loading it again.");
+		}
+		
+		return cached;
+	}
+	
+	private boolean isCached(List<Integer> ids, Function<Integer, String> cacheKey)
+	{
+		for (var id : ids)
+		{
+			if (legiscan.getCache().peekMetadata(cacheKey.apply(id)).isEmpty()) return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Populates the people, bills and votes of a skipped dataset from the cache, in batches. Bills already fetched by the masterlist diff are kept.
+	 */
+	protected void loadFromCache()
+	{
+		if (unloaded == null) return;
+		
+		synchronized (this)
+		{
+			var manifest = unloaded;
+			if (manifest == null) return;
+			
+			loadFromCache(manifest.getPeopleIds(), LegiscanPeopleView::getCacheKey, LegiscanResponse::getPerson, people);
+			loadFromCache(manifest.getBillIds(), LegiscanBillView::getCacheKey, LegiscanResponse::getBill, bills);
+			loadFromCache(manifest.getRollCallIds(), LegiscanRollCallView::getCacheKey, LegiscanResponse::getRollcall, votes);
+			
+			unloaded = null;
+		}
+	}
+	
+	private <V> void loadFromCache(List<Integer> ids, Function<Integer, String> cacheKey, Function<LegiscanResponse, V> view, Map<Integer, V> into)
+	{
+		for (var batch : batches(ids))
+		{
+			var keys = batch.stream().map(cacheKey).toList();
+			var cached = legiscan.getCache().getAll(keys, new TypeReference<LegiscanResponse>() {});
+			
+			for (var id : batch)
+			{
+				var entry = cached.get(cacheKey.apply(id));
+				V value = entry != null ? view.apply(entry.getValue()) : null;
+				
+				if (value == null) {
+					LOGGER.fine("Entry [" + cacheKey.apply(id) + "] of dataset [" + dataset.getSessionName() + "] is no longer cached.");
+					continue;
+				}
+				
+				into.putIfAbsent(id, value);
+			}
+		}
+	}
+	
 	/**
 	 * Fetches the dataset via the Legiscan 'bulk loader', by hitting the 'getDatasetRaw' API to receive a zip file, and then loads that zip file
 	 * into the legiscan cache. This will load people, bills, and votes.
 	 * 
+	 * The zip is read in place: each people, bill and vote entry is parsed straight out of the archive, so nothing is extracted to the filesystem.
+	 * Entries are parsed in parallel, using up to the service's configured bulk load parallelism, and written to the cache in batches.
+	 * 
 	 * If a bill already exists in the cache it will not be updated; people and votes will be updated. This is because what's in the cache could be
 	 * more up-to-date than what we currently have for bills.
 	 */
 	@SneakyThrows
 	protected void bulkLoad()
 	{
-
-        byte[] zipBytes = legiscan.getDatasetRaw(dataset.getSessionId(), dataset.getAccessKey(), "json");
-
-        // Write zipBytes to a temporary file
-        Path tempZip = Files.createTempFile("dataset-", ".zip");
-        
-        File file = null;
+        Path archive = legiscan.getDatasetArchive(dataset, "json");
         
-        try
+        try (ZipFile zipFile = new ZipFile(archive.toFile()))
         {
-            Files.write(tempZip, zipBytes);
-
-            // Use ZipFile from zip4j to extract
-            try (ZipFile zipFile = new ZipFile(tempZip.toFile())) {
-                File extractToDir = new File(PoliscoreLegiscanUtil.getDeployedPath(), "cache/" + dataset.getStateId() + "/" + dataset.getYearEnd() + "/" + dataset.getSessionId());
-                zipFile.extractAll(extractToDir.getAbsolutePath());
-                
-                File fPeopleParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "people");
-                File fBillParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "bill");
-                File fVoteParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "vote");
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fPeopleParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var person = resp.getPerson();
-                	
-                    String cacheKey = LegiscanPeopleView.getCacheKey(person.getPeopleId());
-                	
-                    legiscan.getCache().put(cacheKey, resp);
-                	people.put(person.getPeopleId(), person);
-                }
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fBillParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var bill = resp.getBill();
-                	
-                	// This is unfortunate... Legiscan doesn't actually have a 'last update date' concept, they only have a change hash.
-                	// For this reason, we cannot replace the bill in the cache if it already exists, because it could be more up-to-date
-                	// than what we got from the bulk upload. This should only ever happen with bills, since the refresh frequency for votes
-                	// and people is the same for the rest of their API.
-                	String cacheKey = LegiscanBillView.getCacheKey(bill.getBillId());
-                	var cached = legiscan.getCache().peek(cacheKey).orElse(null);
-            		if (cached == null) {
-	                    legiscan.getCache().put(cacheKey, resp);
-	                	bills.put(bill.getBillId(), bill);
-            		} else {
-            			bills.put(bill.getBillId(), objectMapper.convertValue(cached.getValue(), new TypeReference<LegiscanResponse>() {}).getBill());
-            		}
-                }
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fVoteParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var rollCall = resp.getRollcall();
-                	
-                    String cacheKey = LegiscanRollCallView.getCacheKey(rollCall.getRollCallId());
-                	
-                    legiscan.getCache().put(cacheKey, resp);
-                	votes.put(rollCall.getRollCallId(), rollCall);
-                }
-            }
-        }
-        catch (Throwable t)
-        {
-        	Files.deleteIfExists(tempZip);
+        	List<? extends ZipEntry> entries = zipFile.stream()
+        			.filter(e -> !e.isDirectory() && e.getName().toLowerCase().endsWith(".json"))
+        			.toList();
+        	
+        	int parallelism = legiscan.getBulkLoadParallelism();
+        	
+        	// Entries are independent of one another, so parsing them is spread across a work-stealing pool
+        	var pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
         	
-        	if (file != null)
-        		throw new RuntimeException("Encountered problem while processing file [" + file.getAbsolutePath() + "].", t);
-        	else
-        		throw t;
+        	try
+        	{
+        		for (var batch : batches(entries))
+        		{
+        			List<DatasetEntry> parsed = pool == null
+        					? batch.stream().map(entry -> parseEntry(zipFile, entry)).toList()
+        					: pool.submit(() -> batch.parallelStream().map(entry -> parseEntry(zipFile, entry)).toList()).get();
+        			
+        			loadBatch(parsed);
+        		}
+        	}
+        	catch (ExecutionException e)
+        	{
+        		throw e.getCause();
+        	}
+        	finally
+        	{
+        		if (pool != null) pool.shutdown();
+        	}
         }
         
         LOGGER.info("Bulk load complete for dataset [" + dataset.getSessionName() + "] into cache [" + legiscan.getCache().toString() + "]. Dataset contained " + people.size() + " people, " + bills.size()+ " bills, and " + votes.size()+ " votes.");
-    
 	}
 	
+	/**
+	 * @return The parsed entry, or null if the entry is not a people, bill or vote entry
+	 */
+	protected DatasetEntry parseEntry(ZipFile zipFile, ZipEntry entry)
+	{
+		String type = entryType(entry.getName());
+		
+		if (!type.equals("people") && !type.equals("bill") && !type.equals("vote"))
+		{
+			LOGGER.fine("Skipping unrecognized dataset entry [" + entry.getName() + "].");
+			return null;
+		}
+		
+		try (InputStream in = zipFile.getInputStream(entry))
+		{
+			return new DatasetEntry(type, objectMapper.readValue(in, LegiscanResponse.class));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Encountered problem while processing file [" + entry.getName() + "] in archive [" + zipFile.getName() + "].", e);
+		}
+	}
+	
+	/**
+	 * Loads a batch of parsed entries into the cache, looking up the batch's bills with one getAll and writing the batch with one putAll.
+	 */
+	protected void loadBatch(List<DatasetEntry> batch)
+	{
+		var billKeys = batch.stream()
+				.filter(entry -> entry != null && entry.type().equals("bill"))
+				.map(entry -> LegiscanBillView.getCacheKey(entry.response().getBill().getBillId()))
+				.toList();
+		
+		var cachedBills = billKeys.isEmpty()
+				? Map.<String, CachedEntry<LegiscanResponse>>of()
+				: legiscan.getCache().getAll(billKeys, new TypeReference<LegiscanResponse>() {});
+		
+		var writes = new LinkedHashMap<String, LegiscanResponse>();
+		
+		for (var entry : batch)
+		{
+			if (entry == null) continue;
+			
+			switch (entry.type())
+			{
+				case "people" -> loadPerson(entry.response(), writes);
+				case "bill" -> loadBill(entry.response(), cachedBills, writes);
+				case "vote" -> loadVote(entry.response(), writes);
+			}
+		}
+		
+		legiscan.getCache().putAll(writes);
+	}
+	
+	/**
+	 * Dataset archives are laid out as STATE/SESSION/{people,bill,vote}/*.json. Returns the name of the directory which contains the entry.
+	 */
+	protected static String entryType(String entryName)
+	{
+		int end = entryName.lastIndexOf('/');
+		if (end <= 0) return "";
+		
+		int start = entryName.lastIndexOf('/', end - 1);
+		return entryName.substring(start + 1, end);
+	}
+	
+	protected void loadPerson(LegiscanResponse resp, Map<String, LegiscanResponse> writes)
+	{
+		var person = resp.getPerson();
+		
+		writes.put(LegiscanPeopleView.getCacheKey(person.getPeopleId()), resp);
+		people.put(person.getPeopleId(), person);
+	}
+	
+	protected void loadBill(LegiscanResponse resp, Map<String, CachedEntry<LegiscanResponse>> cachedBills, Map<String, LegiscanResponse> writes)
+	{
+		var bill = resp.getBill();
+		
+		// This is unfortunate... Legiscan doesn't actually have a 'last update date' concept, they only have a change hash.
+		// For this reason, we cannot replace the bill in the cache if it already exists, because it could be more up-to-date
+		// than what we got from the bulk upload. This should only ever happen with bills, since the refresh frequency for votes
+		// and people is the same for the rest of their API.
+		String cacheKey = LegiscanBillView.getCacheKey(bill.getBillId());
+		var cached = cachedBills.get(cacheKey);
+		if (cached == null) {
+			writes.put(cacheKey, resp);
+			bills.put(bill.getBillId(), bill);
+		} else {
+			legiscan.indexBill(cached);
+			bills.put(bill.getBillId(), cached.getValue().getBill());
+		}
+	}
+	
+	protected void loadVote(LegiscanResponse resp, Map<String, LegiscanResponse> writes)
+	{
+		var rollCall = resp.getRollcall();
+		
+		writes.put(LegiscanRollCallView.getCacheKey(rollCall.getRollCallId()), resp);
+		votes.put(rollCall.getRollCallId(), rollCall);
+	}
+	
+	/**
+	 * Splits a list into consecutive batches of at most BATCH_SIZE elements.
+	 */
+	protected static <T> List<List<T>> batches(List<T> list)
+	{
+		var batches = new ArrayList<List<T>>();
+		
+		for (int start = 0; start < list.size(); start += BATCH_SIZE)
+		{
+			batches.add(list.subList(start, Math.min(start + BATCH_SIZE, list.size())));
+		}
+		
+		return batches;
+	}
+	
+	/**
+	 * A people, bill or vote entry parsed from a dataset archive.
+	 */
+	protected record DatasetEntry(String type, LegiscanResponse response) {}
+	
 	/**
      * Fetches the masterlist and caches all new or updated bills. This is important because the masterlist is updated with new bills every hour but the
      * 'getSessionPeople' or the 'getDataset' APIs are updated weekly. So this makes our bills much more current.
+     * 
+     * Which bills are out of date, and which have merely expired, is decided from the change hash index alone, without reading any cached bills.
+     * Expired bills are then read, and re-stamped only if their own change_hash still matches the masterlist.
+     * 
+     * Out of date bills are fetched concurrently, up to the service's configured update parallelism. A bill which fails to fetch does not stop the update;
+     * the failure is logged and recorded in the failures map instead.
      */
     protected void updateBills()
     {
-    	var masterlist = legiscan.getMasterListRaw(dataset.getSessionId());
+    	var summaries = legiscan.getMasterListRaw(dataset.getSessionId()).getBills().values();
+    	var index = legiscan.getChangeHashIndex();
+    	
+    	failures.clear();
     	
-    	// Count how many
-    	long count = 0;
-    	for (var summary : masterlist.getBills().values())
+    	seedIndex(summaries.stream()
+    			.map(BillSummary::getBillId)
+    			.filter(billId -> index.getEntry(billId).isEmpty())
+    			.toList());
+    	
+    	List<BillSummary> outdated = new ArrayList<BillSummary>();
+    	List<BillSummary> expired = new ArrayList<BillSummary>();
+    	for (var summary : summaries)
     	{
-            String cacheKey = LegiscanBillView.getCacheKey(summary.getBillId());
-    		
-    		var cached = legiscan.getCache().peek(cacheKey).orElse(null);
-    		var cachedVal = cached == null ? null : objectMapper.convertValue(cached.getValue(), new TypeReference<LegiscanResponse>() {});
+    		var indexed = index.getEntry(summary.getBillId()).orElse(null);
     		
-    		if (cached == null || cachedVal.getBill() == null || !summary.getChangeHash().equals(cachedVal.getBill().getChangeHash()))
-    		{
-    			count++;
+    		if (indexed == null || !summary.getChangeHash().equals(indexed.changeHash())) {
+    			outdated.add(summary);
+    		} else if (!indexed.hasMetadata() || indexed.isExpired()) {
+    			expired.add(summary);
     		}
     	}
-    	LOGGER.info("Updating bills. Will fetch " + count + " bills from Legiscan.");
     	
-    	// Do it
-    	for (var summary : masterlist.getBills().values())
+    	// Refresh the TTL of expired bills here since we just verified with the masterlist that they're the latest
+    	for (var batch : batches(expired))
     	{
-            String cacheKey = LegiscanBillView.getCacheKey(summary.getBillId());
+    		var keys = batch.stream().map(summary -> LegiscanBillView.getCacheKey(summary.getBillId())).toList();
+    		var cached = legiscan.getCache().getAll(keys, new TypeReference<LegiscanResponse>() {});
+    		var refreshed = new LinkedHashMap<String, LegiscanResponse>();
+    		
+    		for (var summary : batch) {
+    			String cacheKey = LegiscanBillView.getCacheKey(summary.getBillId());
+    			var entry = cached.get(cacheKey);
+    			var bill = entry != null ? entry.getValue().getBill() : null;
+    			
+    			// The index may be ahead of the cache, so the bill itself must match the masterlist before it is re-stamped
+    			if (bill == null || !summary.getChangeHash().equals(bill.getChangeHash())) {
+    				outdated.add(summary);
+    			} else if (entry.isExpired()) {
+    				refreshed.put(cacheKey, entry.getValue());
+    			} else {
+    				legiscan.indexBill(entry);
+    			}
+    		}
     		
-    		var cached = legiscan.getCache().peek(cacheKey).orElse(null);
-    		var cachedVal = cached == null ? null : objectMapper.convertValue(cached.getValue(), new TypeReference<LegiscanResponse>() {});
+    		legiscan.getCache().putAll(refreshed);
+    	}
+    	
+    	LOGGER.info("Updating bills. Will fetch " + outdated.size() + " bills from Legiscan.");
+    	
+    	refreshBills(outdated);
+    	
+    	if (!failures.isEmpty()) {
+    		LOGGER.warning("Failed to fetch " + failures.size() + " of " + outdated.size() + " bills from Legiscan for dataset [" + dataset.getSessionName() + "].");
+    	}
+    }
+    
+    @SneakyThrows
+    protected void refreshBills(List<BillSummary> outdated)
+    {
+    	int parallelism = legiscan.getUpdateParallelism();
+    	
+    	if (parallelism <= 1) {
+    		for (var summary : outdated) {
+    			refreshBill(summary);
+    		}
+    		return;
+    	}
+    	
+    	var permits = new Semaphore(parallelism);
+    	var futures = new ArrayList<Future<?>>(outdated.size());
+    	
+    	for (var summary : outdated) {
+    		permits.acquire();
     		
-    		if (cached == null || cachedVal.getBill() == null || !summary.getChangeHash().equals(cachedVal.getBill().getChangeHash())) {
-    			legiscan.getCache().remove(cacheKey);
-    			var bill = legiscan.getBill(summary.getBillId());
-    			bills.put(bill.getBillId(), bill);
-    		} else if (cached.isExpired()) {
-    			// Refresh the TTL here since we just verified with the masterlist that its latest
-    			legiscan.getCache().put(cacheKey, cachedVal);
+    		try {
+    			futures.add(legiscan.getExecutor().submit(() -> {
+    				try {
+    					refreshBill(summary);
+    				} finally {
+    					permits.release();
+    				}
+    			}));
+    		} catch (RejectedExecutionException e) {
+    			permits.release();
+    			throw e;
     		}
     	}
+    	
+    	for (var future : futures) {
+    		future.get();
+    	}
+    }
+    
+    /**
+     * Populates the change hash index for bills which are cached but not yet indexed, such as bills cached before the index existed. Bills which are
+     * not cached are skipped.
+     */
+    protected void seedIndex(List<Integer> billIds)
+    {
+    	for (var batch : batches(billIds))
+    	{
+    		var keys = batch.stream().map(LegiscanBillView::getCacheKey).toList();
+    		
+    		for (var cached : legiscan.getCache().getAll(keys, new TypeReference<LegiscanResponse>() {}).values()) {
+    			legiscan.indexBill(cached);
+    		}
+    	}
+    }
+    
+    protected void refreshBill(BillSummary summary)
+    {
+    	try {
+    		legiscan.getCache().remove(LegiscanBillView.getCacheKey(summary.getBillId()));
+    		var bill = legiscan.getBill(summary.getBillId());
+    		bills.put(bill.getBillId(), bill);
+    	} catch (Exception e) {
+    		LOGGER.log(Level.WARNING, "Failed to fetch bill [" + summary.getBillId() + "] from Legiscan.", e);
+    		failures.put(summary.getBillId(), e);
+    	}
+    }
+    
+    /**
+     * Records the version of a dataset which was last bulk loaded into the cache, and the entries it contained, so that unchanged datasets need not be
+     * loaded again. Stored in the cache without a TTL, since whether the entries it lists are still cached is checked every time it is read.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DatasetManifest {
+    	public static String getCacheKey(int sessionId) {
+    		return "datasetmanifest/" + sessionId;
+    	}
+    	
+    	private int sessionId;
+    	
+    	private String datasetHash;
+    	
+    	/**
+    	 * Epoch seconds at which the dataset was imported
+    	 */
+    	private long importedAt;
+    	
+    	private List<Integer> peopleIds;
+    	
+    	private List<Integer> billIds;
+    	
+    	private List<Integer> rollCallIds;
     }
 }
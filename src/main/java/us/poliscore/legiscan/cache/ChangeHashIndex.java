@@ -0,0 +1,278 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+
+/**
+ * A compact index of bill_id to change_hash for every bill held in the cache. The entire index lives in memory, so a masterlist can be diffed
+ * against the cache without reading any cached bills. Each bill is indexed along with the timestamp and TTL of its cache entry, so whether the
+ * entry has expired is known without reading it either.
+ *
+ * If a file is provided, the index is persisted as an append-only log of 'bill_id TAB change_hash TAB timestamp TAB ttl_secs' lines, where an
+ * empty hash marks a removal. The log is replayed when the index is opened and compacted if it has accumulated many superseded lines. With process
+ * locking, appends and compaction hold a file lock, so that several processes may share one log.
+ */
+public class ChangeHashIndex implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(ChangeHashIndex.class.getName());
+
+	/**
+	 * The timestamp of bills indexed without their cache entry's metadata, such as those read from a log written before it was recorded.
+	 */
+	private static final long UNKNOWN = -1;
+
+	private final Map<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+	private final Path file;
+
+	private final boolean processLocking;
+
+	private FileChannel lockFile;
+
+	private BufferedWriter writer;
+
+	/**
+	 * Creates an index which is held in memory only.
+	 */
+	public ChangeHashIndex() {
+		this.file = null;
+		this.processLocking = false;
+	}
+
+	/**
+	 * Opens (or creates) an index persisted to the given file.
+	 */
+	public ChangeHashIndex(File file) {
+		this(file, false);
+	}
+
+	/**
+	 * Opens (or creates) an index persisted to the given file.
+	 *
+	 * @param processLocking If true, appends and compaction also take a file lock, so that several processes may safely share the file
+	 */
+	public ChangeHashIndex(File file, boolean processLocking) {
+		this.file = file.toPath();
+		this.processLocking = processLocking;
+
+		try {
+			Files.createDirectories(this.file.getParent());
+
+			if (processLocking) {
+				lockFile = FileChannel.open(this.file.resolveSibling(this.file.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			}
+
+			withLock(() -> {
+				long lines = load();
+
+				// Another process may have appended since, so the log is only ever rewritten while holding the lock
+				if (lines > 2L * entries.size() + 1000) {
+					compact();
+				}
+			});
+
+			if (!processLocking) {
+				this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open change hash index: " + file, e);
+		}
+	}
+
+	/**
+	 * @return The change_hash of the cached bill, if the bill is indexed
+	 */
+	public Optional<String> get(int billId) {
+		return getEntry(billId).map(Entry::changeHash);
+	}
+
+	/**
+	 * @return The change_hash of the cached bill, along with the timestamp and TTL of its cache entry, if the bill is indexed
+	 */
+	public Optional<Entry> getEntry(int billId) {
+		return Optional.ofNullable(entries.get(billId));
+	}
+
+	/**
+	 * Indexes a bill without its cache entry's metadata. Whether its entry has expired is then unknown, so it must be checked in the cache itself.
+	 */
+	public void put(int billId, String changeHash) {
+		put(billId, changeHash, null);
+	}
+
+	/**
+	 * @param metadata The timestamp and TTL of the bill's cache entry. May be null if unknown.
+	 */
+	public synchronized void put(int billId, String changeHash, CachedEntryMetadata metadata) {
+		if (changeHash == null) {
+			remove(billId);
+			return;
+		}
+
+		var entry = metadata == null
+				? new Entry(changeHash, UNKNOWN, 0)
+				: new Entry(changeHash, metadata.getTimestamp(), metadata.getTtlSecs());
+
+		if (entry.equals(entries.put(billId, entry))) return;
+
+		append(line(billId, entry));
+	}
+
+	public synchronized void remove(int billId) {
+		if (entries.remove(billId) != null) {
+			append(billId + "\t\n");
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void append(String lines) {
+		if (file == null) return;
+
+		try {
+			if (!processLocking) {
+				writer.write(lines);
+				writer.flush();
+				return;
+			}
+
+			// Another process may have compacted the log since it was last written, so it is opened again for every append
+			withLock(() -> {
+				try (var out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+					out.write(lines);
+				}
+			});
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write change hash index: " + file, e);
+		}
+	}
+
+	private static String line(int billId, Entry entry) {
+		return billId + "\t" + entry.changeHash() + "\t" + entry.timestamp() + "\t" + entry.ttlSecs() + "\n";
+	}
+
+	private long load() throws IOException {
+		if (!Files.exists(file)) return 0;
+
+		long lines = 0;
+
+		try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines++;
+
+				String[] fields = line.split("\t", -1);
+				if (fields.length < 2 || fields[0].isEmpty()) continue;
+
+				try {
+					int billId = Integer.parseInt(fields[0]);
+					String changeHash = fields[1];
+
+					if (changeHash.isEmpty()) {
+						entries.remove(billId);
+					} else if (fields.length >= 4) {
+						entries.put(billId, new Entry(changeHash, Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+					} else {
+						// Written before entry metadata was recorded
+						entries.put(billId, new Entry(changeHash, UNKNOWN, 0));
+					}
+				} catch (NumberFormatException e) {
+					// A torn write from a previous crash. Everything after it is still usable.
+					LOGGER.fine("Skipping malformed change hash index line: " + line);
+				}
+			}
+		}
+
+		return lines;
+	}
+
+	private void compact() throws IOException {
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+		try (var out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			for (var entry : entries.entrySet()) {
+				out.write(line(entry.getKey(), entry.getValue()));
+			}
+		}
+
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Runs the work while holding the index's file lock, if process locking is enabled.
+	 */
+	private void withLock(IORunnable work) throws IOException {
+		if (lockFile == null) {
+			work.run();
+			return;
+		}
+
+		FileLock lock = lockFile.lock();
+		try {
+			work.run();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@FunctionalInterface
+	private interface IORunnable {
+		void run() throws IOException;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} finally {
+			if (lockFile != null) {
+				lockFile.close();
+				lockFile = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Change Hash Index (" + (file == null ? "memory" : file.toAbsolutePath()) + ", " + entries.size() + " bills)";
+	}
+
+	/**
+	 * The indexed change_hash of a bill, and the timestamp and TTL of the cache entry it was read from.
+	 */
+	public record Entry(String changeHash, long timestamp, long ttlSecs) {
+
+		/**
+		 * @return false if the bill was indexed without its cache entry's metadata, in which case its expiry is unknown
+		 */
+		public boolean hasMetadata() {
+			return timestamp != UNKNOWN;
+		}
+
+		public boolean isExpired() {
+			return ttlSecs > 0 && Instant.now().getEpochSecond() > timestamp + ttlSecs;
+		}
+	}
+}
@@ -5,66 +5,257 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import us.poliscore.legiscan.service.CachedLegiscanService;
 import us.poliscore.legiscan.view.LegiscanResponse;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+/**
+ * A cache which stores each entry in its own file, in a directory named after the entry's key. Directories are sharded by a hash of the key (see
+ * {@link ShardedCacheLayout}), so that no directory grows to hundreds of thousands of children. A cache directory written with the older layout, one
+ * directory per key directly under the operation's directory, is migrated to the sharded layout the first time it is opened.
+ * 
+ * Entries are written to a temporary file and atomically renamed into place, so readers (in this or any other process) only ever see a complete entry,
+ * and never need to lock. Writers to the same key are serialized by one of a fixed number of lock stripes. Optionally, the stripes are also locked
+ * across processes with file locks, so that several processes may write to one cache directory.
+ */
 public class FileSystemLegiscanCache implements LegiscanCache {
 
     private static final Logger LOGGER = Logger.getLogger(FileSystemLegiscanCache.class.getName());
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    private static final String LOCK_DIRECTORY = ".locks";
+    
+    /**
+     * Records which layout the cache directory is in, so that an older layout is migrated exactly once.
+     */
+    private static final String LAYOUT_FILE = ".layout";
+    
+    private static final String LAYOUT_VERSION = "sharded-1";
+    
+    /**
+     * The number of threads batch reads and writes are spread across. Each entry is its own file, so they are independent of one another, and mostly
+     * waiting on the disk.
+     */
+    private static final int BATCH_PARALLELISM = 16;
+    
+    private static final long ABANDONED_TEMP_FILE_MILLIS = Duration.ofHours(1).toMillis();
 
     private final File baseDir;
     private final ObjectMapper objectMapper;
-    private final int defaultTtlSecs; // If > 0, applies to non-static entries unless overridden
+    private final CacheTtlPolicy ttlPolicy;
+    private final CacheEntrySerializer serializer;
+    private final boolean processLocking;
+    private final ShardedCacheLayout layout;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final FileChannel[] lockFiles = new FileChannel[LOCK_STRIPES];
+    private ScheduledExecutorService sweeper;
+    
+    /**
+     * Runs the per-key reads and writes of batches. Shared by every batch, so that concurrent batches stay within BATCH_PARALLELISM threads
+     * between them. Its threads are started on demand.
+     */
+    private final ForkJoinPool batchPool = new ForkJoinPool(BATCH_PARALLELISM);
+    
+    /**
+     * Whether hits from {@link #getOrExpire(String, TypeReference)} mark their entry as recently used. Reads through peek, peekMetadata and getAll do
+     * not, since they also serve snapshot exports and dataset diffs, which read entries without using them and would otherwise make every entry look
+     * recently used.
+     */
+    private volatile boolean touchOnRead;
 
-    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, int defaultTtlSecs) {
+    /**
+     * @param baseDir The directory to store entries in
+     * @param objectMapper
+     * @param defaultTtlSecs If > 0, applies to non-static entries unless overridden
+     * @param format The format new entries are written in. Entries written in any other format remain readable, and are rewritten in this format
+     *  the next time they are put. See {@link #migrate()} to rewrite them all at once.
+     */
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, int defaultTtlSecs, CacheFormat format) {
+        this(baseDir, objectMapper, defaultTtlSecs, format, false);
+    }
+    
+    /**
+     * @param baseDir The directory to store entries in
+     * @param objectMapper
+     * @param defaultTtlSecs If > 0, applies to non-static entries unless overridden
+     * @param format The format new entries are written in
+     * @param processLocking If true, writers also take a file lock, so that several processes may safely write to the same cache directory. Not needed
+     *  when only one process writes to the cache, however many threads it uses.
+     */
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, int defaultTtlSecs, CacheFormat format, boolean processLocking) {
+        this(baseDir, objectMapper, defaultTtlSecs, format, processLocking, null);
+    }
+    
+    /**
+     * @param baseDir The directory to store entries in
+     * @param objectMapper
+     * @param defaultTtlSecs If > 0, applies to non-static entries unless overridden
+     * @param format The format new entries are written in
+     * @param processLocking If true, writers also take a file lock, so that several processes may safely write to the same cache directory
+     * @param partitioner Returns the partition a key is stored under, such as the key's state, or null to store the key unpartitioned. Must always
+     *  return the same partition for the same key; entries written under a different partition are not found. May be null.
+     */
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, int defaultTtlSecs, CacheFormat format, boolean processLocking, Function<String, String> partitioner) {
+        this(baseDir, objectMapper, CacheTtlPolicy.fixed(defaultTtlSecs), format, processLocking, partitioner);
+    }
+    
+    /**
+     * @param baseDir The directory to store entries in
+     * @param objectMapper
+     * @param ttlPolicy Decides the TTL of entries put without one
+     * @param format The format new entries are written in
+     * @param processLocking If true, writers also take a file lock, so that several processes may safely write to the same cache directory
+     * @param partitioner Returns the partition a key is stored under, or null to store the key unpartitioned. May be null.
+     */
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, CacheTtlPolicy ttlPolicy, CacheFormat format, boolean processLocking, Function<String, String> partitioner) {
         this.baseDir = baseDir;
         this.objectMapper = objectMapper;
-        this.defaultTtlSecs = defaultTtlSecs;
+        this.ttlPolicy = ttlPolicy;
+        this.serializer = new CacheEntrySerializer(objectMapper, format);
+        this.processLocking = processLocking;
+        this.layout = new ShardedCacheLayout(partitioner);
+        
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
 
         if (!baseDir.exists() && !baseDir.mkdirs()) {
             throw new IllegalStateException("Could not create cache directory: " + baseDir);
         }
+        
+        try {
+            initLayout();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not initialize cache directory: " + baseDir, e);
+        }
+    }
+
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, int defaultTtlSecs) {
+        this(baseDir, objectMapper, defaultTtlSecs, CacheFormat.JSON);
     }
 
     public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper) {
         this(baseDir, objectMapper, 0);
     }
+    
+    public CacheFormat getFormat() {
+        return serializer.getFormat();
+    }
 
-    private File resolvePath(String key) {
-        String filename = key.replaceAll("[^/a-zA-Z0-9\\-_]", "_") + "/cached.json";
-        return new File(baseDir, filename);
+    /**
+     * @return The directory holding the entry for this key, relative to the base directory. Also the lock key for the entry.
+     */
+    private String locate(String key) {
+        return layout.locate(key);
+    }
+    
+    /**
+     * @return The directory which holds, or would hold, the entry for this key
+     */
+    public File entryDirectory(String key) {
+        return new File(baseDir, locate(key));
+    }
+    
+    private File resolvePath(String location) {
+        return new File(new File(baseDir, location), getFormat().getFileName());
+    }
+    
+    /**
+     * @return The file holding the entry at this location, in whichever format it was written, or null if there is no entry
+     */
+    private File findFile(String location) {
+        File file = resolvePath(location);
+        if (file.exists()) return file;
+        
+        File other = otherFormatFile(file);
+        return other.exists() ? other : null;
+    }
+    
+    private File otherFormatFile(File file) {
+        String other = file.getName().equals(CacheFormat.JSON.getFileName()) ? CacheFormat.SMILE.getFileName() : CacheFormat.JSON.getFileName();
+        return new File(file.getParentFile(), other);
+    }
+    
+    /**
+     * Opens the entry at this location. Once opened, the entry can be read in full even if it is concurrently replaced or removed.
+     * 
+     * @return A stream over the entry, or null if there is no entry
+     */
+    private InputStream open(String location) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            File file = findFile(location);
+            if (file == null) return null;
+            
+            try {
+                return Files.newInputStream(file.toPath());
+            } catch (NoSuchFileException e) {
+                // Replaced by an entry in another format, or removed, between finding and opening it
+                if (attempt > 0) return null;
+            }
+        }
+    }
+    
+    private <T> CachedEntry<T> readEntry(String location, TypeReference<T> typeRef, boolean bindExpired) throws IOException {
+        try (var in = open(location)) {
+            return in == null ? null : serializer.read(in, typeRef, bindExpired);
+        }
     }
 
     @Override
     public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
-        File file = resolvePath(key);
-        if (!file.exists()) {
-            return Optional.empty();
-        }
-
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            CachedEntry entry = objectMapper.readValue(data, CachedEntry.class);
+            // Expiry is known before the value is reached, so an expired value is never bound
+            String location = locate(key);
+            CachedEntry<T> entry = readEntry(location, typeRef, false);
+            if (entry == null) {
+                return Optional.empty();
+            }
 
             if (entry.isExpired()) {
                 LOGGER.fine("Cache expired for key: " + key);
-                file.delete(); // Clean up expired file
+                expire(location);
                 return Optional.empty();
             }
 
-            T value = objectMapper.convertValue(entry.getValue(), typeRef);
-            return Optional.of(value);
+            if (touchOnRead) touch(location);
+            return Optional.of(entry.getValue());
 
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
@@ -78,40 +269,562 @@ public class FileSystemLegiscanCache implements LegiscanCache {
     }
     
     @Override
-    public Optional<CachedEntry> peek(String key) {
-        File file = resolvePath(key);
-        if (!file.exists()) {
-            return Optional.empty();
-        }
-
+    public Optional<CachedEntry<Object>> peek(String key) {
+        return peek(key, new TypeReference<Object>() {});
+    }
+    
+    @Override
+    public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            CachedEntry entry = objectMapper.readValue(data, CachedEntry.class);
-
-            return Optional.of(entry);
+            return Optional.ofNullable(readEntry(locate(key), typeRef, true));
 
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
             return Optional.empty();
         }
     }
+    
+    @Override
+    public Optional<CachedEntryMetadata> peekMetadata(String key) {
+        try (var in = open(locate(key))) {
+            return in == null ? Optional.empty() : Optional.of(serializer.readMetadata(in));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read cache metadata for key: " + key, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+        var entries = new ConcurrentHashMap<String, CachedEntry<T>>();
+        forEachInParallel(keys, key -> peek(key, typeRef).ifPresent(entry -> entries.put(key, entry)));
+        return entries;
+    }
 
     @Override
     public void put(String key, Object value) {
-        put(key, value, ttlForCacheKey(key));
+        put(key, value, ttlPolicy.ttlSecs(key, value));
+    }
+    
+    @Override
+    public void putAll(Map<String, ?> values) {
+        forEachInParallel(values.keySet(), key -> put(key, values.get(key)));
+    }
+    
+    private void forEachInParallel(Collection<String> keys, Consumer<String> work) {
+        if (keys.size() <= 1) {
+            keys.forEach(work);
+            return;
+        }
+        
+        try {
+            batchPool.submit(() -> keys.parallelStream().forEach(work)).join();
+        } catch (RejectedExecutionException e) {
+            // Closed, so the batch is applied on the caller's thread
+            keys.forEach(work);
+        }
     }
 
     public void put(String key, Object value, long ttlSecs) {
-        File file = resolvePath(key);
-        file.getParentFile().mkdirs();
+        String location = locate(key);
+        File file = resolvePath(location);
         try {
-            CachedEntry entry = new CachedEntry(value, Instant.now().getEpochSecond(), ttlSecs);
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, entry);
+            var entry = new CachedEntry<Object>(value, Instant.now().getEpochSecond(), ttlSecs);
+            withLock(location, () -> writeEntry(file, entry));
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
         }
     }
     
+    @Override
+    public void putEntry(String key, CachedEntry<?> entry) {
+        String location = locate(key);
+        File file = resolvePath(location);
+        try {
+            withLock(location, () -> writeEntry(file, entry));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+        }
+    }
+    
+    /**
+     * Lists keys by walking the entry directories, so it takes time in proportion to the number of entries under the prefix's operation. Entries
+     * written under a different partitioner, which this cache would not find, are not listed.
+     */
+    @Override
+    public List<String> keys(String prefix) {
+        // Only the operation's directory can hold keys with this prefix, once the prefix names a whole operation
+        int slash = prefix.indexOf('/');
+        Path root = slash > 0 ? baseDir.toPath().resolve(CacheKeyEncoder.encode(prefix.substring(0, slash))) : baseDir.toPath();
+        if (!Files.isDirectory(root)) return List.of();
+        
+        try (Stream<Path> files = Files.walk(root)) {
+            return files
+                    .filter(p -> !isHidden(p))
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.equals(CacheFormat.JSON.getFileName()) || name.equals(CacheFormat.SMILE.getFileName());
+                    })
+                    .map(p -> layout.keyOf(location(p)))
+                    .filter(key -> key != null && key.startsWith(prefix))
+                    .distinct()
+                    .toList();
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Could not walk cache directory: " + root, e);
+        }
+    }
+    
+    /**
+     * Walks the entry files lazily, so that neither the entries nor their keys are held in memory. Entries written while the walk is in progress may
+     * or may not be visited.
+     */
+    @Override
+    public void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+        try (Stream<Path> files = entryFiles()) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String location = location(path);
+                String key = layout.keyOf(location);
+                
+                // An entry found in both formats is visited once, in the format it would be read in
+                if (key == null || !key.startsWith(prefix) || !path.toFile().equals(findFile(location))) continue;
+                
+                CachedEntry<Object> entry;
+                try {
+                    try (var in = Files.newInputStream(path)) {
+                        if (!filter.test(serializer.readMetadata(in))) continue;
+                    }
+                    
+                    entry = readEntry(location, new TypeReference<Object>() {}, true);
+                } catch (NoSuchFileException e) {
+                    continue; // Removed since the walk found it
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+                    continue;
+                }
+                
+                if (entry != null) visitor.visit(key, entry);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Writes the entry to a temporary file beside its destination, then renames it into place. Must be called while holding the key's lock.
+     */
+    private void writeEntry(File file, CachedEntry<?> entry) throws IOException {
+        Path dir = file.getParentFile().toPath();
+        Files.createDirectories(dir);
+        
+        Path temp = Files.createTempFile(dir, file.getName(), ".tmp");
+        try {
+            try (var out = Files.newOutputStream(temp)) {
+                serializer.write(out, entry);
+            }
+            
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        
+        // Don't leave behind a copy of this entry in another format, which could later be read in place of this one
+        Files.deleteIfExists(otherFormatFile(file).toPath());
+    }
+    
+    /**
+     * Removes the entry at this location, if it is still expired once its lock is held. Another writer may have replaced it since it was read.
+     * 
+     * @return True if the entry was removed
+     */
+    private boolean expire(String location) throws IOException {
+        boolean[] deleted = new boolean[1];
+        
+        withLock(location, () -> {
+            try (var in = open(location)) {
+                if (in != null && serializer.readMetadata(in).isExpired()) {
+                    deleted[0] = delete(location);
+                }
+            }
+        });
+        
+        return deleted[0];
+    }
+    
+    private boolean delete(String location) throws IOException {
+        File file = resolvePath(location);
+        boolean deleted = Files.deleteIfExists(file.toPath());
+        deleted |= Files.deleteIfExists(otherFormatFile(file).toPath());
+        return deleted;
+    }
+    
+    /**
+     * Runs the work while holding the lock stripe for the given entry location, and the stripe's file lock if process locking is enabled.
+     */
+    private void withLock(String lockKey, IORunnable work) throws IOException {
+        int hash = lockKey.hashCode();
+        int stripe = (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+        
+        locks[stripe].lock();
+        try {
+            if (!processLocking) {
+                work.run();
+                return;
+            }
+            
+            if (lockFiles[stripe] == null) {
+                Path lockDir = baseDir.toPath().resolve(LOCK_DIRECTORY);
+                Files.createDirectories(lockDir);
+                lockFiles[stripe] = FileChannel.open(lockDir.resolve(stripe + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            
+            FileLock fileLock = lockFiles[stripe].lock();
+            try {
+                work.run();
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+    
+    @FunctionalInterface
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+    
+    /**
+     * Checks which layout the cache directory is in, migrating it to the sharded layout if it was written with the older, unsharded one. Holds a file
+     * lock throughout, so that processes opening the same cache directory at once do not both migrate it.
+     */
+    private void initLayout() throws IOException {
+        Path marker = baseDir.toPath().resolve(LAYOUT_FILE);
+        Path lockDir = baseDir.toPath().resolve(LOCK_DIRECTORY);
+        Files.createDirectories(lockDir);
+        
+        try (var channel = FileChannel.open(lockDir.resolve("layout.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = channel.lock();
+            try {
+                if (Files.exists(marker)) {
+                    String version = Files.readString(marker).trim();
+                    if (!version.equals(LAYOUT_VERSION)) throw new IllegalStateException("Unsupported cache layout [" + version + "] in " + baseDir);
+                    return;
+                }
+                
+                int migrated = migrateLayout();
+                if (migrated > 0) LOGGER.info("Migrated " + migrated + " cache entries to the sharded layout in " + this);
+                
+                Path temp = Files.createTempFile(baseDir.toPath(), LAYOUT_FILE, ".tmp");
+                Files.writeString(temp, LAYOUT_VERSION);
+                Files.move(temp, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+    
+    /**
+     * Moves every entry stored in the older layout, where an entry's directory was its key with unsafe characters replaced by '_', to its directory in
+     * the sharded layout. Entries already in the sharded layout, left by an interrupted migration, are skipped.
+     * 
+     * @return The number of entries moved
+     */
+    private int migrateLayout() throws IOException {
+        int migrated = 0;
+        
+        // Collected before moving anything, so that the walk does not visit the entries it moved
+        List<Path> unsharded;
+        try (Stream<Path> files = entryFiles()) {
+            unsharded = files.filter(path -> layout.keyOf(location(path)) == null).toList();
+        }
+        
+        for (Path path : unsharded) {
+            // The older layout's directory names are the sanitized keys, which are the keys themselves for all but unusual keys
+            Path target = baseDir.toPath().resolve(locate(location(path))).resolve(path.getFileName());
+            Files.createDirectories(target.getParent());
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+            migrated++;
+        }
+        
+        if (migrated > 0) {
+            // Deepest first, so that each directory is emptied before its parent is considered
+            try (Stream<Path> paths = Files.walk(baseDir.toPath())) {
+                var dirs = paths.filter(p -> Files.isDirectory(p) && !p.equals(baseDir.toPath()) && !isHidden(p))
+                        .sorted(Comparator.reverseOrder())
+                        .toList();
+                
+                dirs.forEach(this::deleteIfEmpty);
+            }
+        }
+        
+        return migrated;
+    }
+    
+    /**
+     * Rewrites every entry which is not already in this cache's format, preserving its timestamp and TTL. Entries which cannot be read are
+     * logged and left as they are.
+     * 
+     * @return The number of entries rewritten
+     */
+    public int migrate() {
+        String target = getFormat().getFileName();
+        int migrated = 0;
+        
+        try (Stream<Path> files = Files.walk(baseDir.toPath())) {
+            var candidates = files
+                    .filter(p -> !isHidden(p))
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.equals(CacheFormat.JSON.getFileName()) || name.equals(CacheFormat.SMILE.getFileName());
+                    })
+                    .toList();
+            
+            for (Path path : candidates) {
+                try {
+                    File file = path.toFile();
+                    boolean[] rewritten = new boolean[1];
+                    
+                    withLock(location(path), () -> {
+                        byte[] data;
+                        try {
+                            data = Files.readAllBytes(path);
+                        } catch (NoSuchFileException e) {
+                            return; // Already replaced by a migrated sibling, or removed
+                        }
+                        
+                        if (file.getName().equals(target) && CacheEntrySerializer.detect(data) == getFormat()) return;
+                        
+                        writeEntry(new File(file.getParentFile(), target), serializer.read(data));
+                        rewritten[0] = true;
+                    });
+                    
+                    if (rewritten[0]) migrated++;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to migrate cache file: " + path, e);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not walk cache directory: " + baseDir, e);
+        }
+        
+        LOGGER.info("Migrated " + migrated + " cache entries to " + getFormat() + " in " + this);
+        return migrated;
+    }
+    
+    /**
+     * Directories such as '.datasets' and '.index' hold data which is not managed by this cache.
+     */
+    private boolean isHidden(Path path) {
+        Path relative = baseDir.toPath().relativize(path);
+        
+        for (Path part : relative) {
+            if (part.toString().startsWith(".")) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Starts a background task which periodically {@link #sweep(long) sweeps} this cache. The task runs on a daemon thread, and is stopped when the
+     * cache is closed.
+     * 
+     * @param interval The delay between the end of one sweep and the start of the next
+     * @param maxBytes The disk budget to enforce, or 0 to only delete expired entries
+     */
+    public synchronized void startSweeper(Duration interval, long maxBytes) {
+        if (sweeper != null) throw new IllegalStateException("The sweeper is already running for " + this);
+        
+        // File access times can't be relied on (noatime, relatime, and the sweep's own reads all disturb them), so when there is a budget to
+        // enforce, hits move the entry's modified time forward instead, and the sweeper treats that as its last use
+        this.touchOnRead = maxBytes > 0;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("legiscan-cache-sweeper").factory());
+        
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(maxBytes);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to sweep " + this, e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Deletes every expired entry, along with any temporary files abandoned by a crashed writer. Then, if the remaining entries take up more than
+     * maxBytes on disk, evicts the least recently used entries until they fit. Static entries (with a TTL of 0) are only evicted once every other
+     * entry has been.
+     * 
+     * Entries are visited one at a time, and each is removed under its key's lock, so the cache can be used as normal while it is swept. An entry
+     * which is rewritten while being swept is left alone.
+     * 
+     * @param maxBytes The disk budget, or 0 for no budget
+     * @return The number of entries removed
+     */
+    public int sweep(long maxBytes) {
+        int removed = 0;
+        long total = 0;
+        
+        try (Stream<Path> files = entryFiles()) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                try {
+                    String location = location(path);
+                    long size = Files.size(path);
+                    
+                    CachedEntryMetadata metadata;
+                    try (var in = Files.newInputStream(path)) {
+                        metadata = serializer.readMetadata(in);
+                    }
+                    
+                    if (metadata.isExpired() && expire(location)) {
+                        removed++;
+                        deleteIfEmpty(path.getParent());
+                        continue;
+                    }
+                    
+                    total += size;
+                } catch (NoSuchFileException e) {
+                    // Removed since the walk found it
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to sweep cache file: " + path, e);
+                }
+            }
+        }
+        
+        if (maxBytes > 0 && total > maxBytes) {
+            removed += evict(total - maxBytes);
+        }
+        
+        LOGGER.fine("Swept " + removed + " cache entries from " + this);
+        return removed;
+    }
+    
+    /**
+     * Evicts at least the given number of bytes of entries, least recently used (and non-static) first. This walks the cache a second time, but only
+     * when the sweep found it over budget. Both walks are streamed, and only the entries which will be evicted are held in memory, however large the
+     * cache is.
+     */
+    private int evict(long excess) {
+        // Head of the queue is the entry which would be evicted last
+        var evicting = new PriorityQueue<SweepCandidate>(SweepCandidate.EVICTION_ORDER.reversed());
+        long evictingBytes = 0;
+        
+        try (Stream<Path> files = entryFiles()) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                try {
+                    var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    
+                    CachedEntryMetadata metadata;
+                    try (var in = Files.newInputStream(path)) {
+                        metadata = serializer.readMetadata(in);
+                    }
+                    
+                    evicting.add(new SweepCandidate(path, attributes.size(), attributes.lastModifiedTime(), metadata.getTtlSecs() == 0));
+                    evictingBytes += attributes.size();
+                    
+                    while (evictingBytes - evicting.peek().size >= excess) {
+                        evictingBytes -= evicting.poll().size;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Removed since the walk found it
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to sweep cache file: " + path, e);
+                }
+            }
+        }
+        
+        int evicted = 0;
+        for (var candidate : evicting) {
+            try {
+                boolean[] deleted = new boolean[1];
+                
+                withLock(location(candidate.path), () -> {
+                    try {
+                        // Rewritten or read since it was chosen, so it is no longer the least recently used
+                        if (!Files.getLastModifiedTime(candidate.path).equals(candidate.modified)) return;
+                    } catch (NoSuchFileException e) {
+                        return;
+                    }
+                    
+                    deleted[0] = delete(location(candidate.path));
+                });
+                
+                if (deleted[0]) {
+                    evicted++;
+                    deleteIfEmpty(candidate.path.getParent());
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict cache file: " + candidate.path, e);
+            }
+        }
+        
+        if (evicted > 0) LOGGER.info("Evicted " + evicted + " cache entries from " + this + " to stay within its disk budget");
+        return evicted;
+    }
+    
+    private record SweepCandidate(Path path, long size, FileTime modified, boolean isStatic) {
+        static final Comparator<SweepCandidate> EVICTION_ORDER = Comparator.comparing(SweepCandidate::isStatic).thenComparing(SweepCandidate::modified);
+    }
+    
+    /**
+     * Lazily walks every entry file in the cache, deleting abandoned temporary files along the way. The stream must be closed.
+     */
+    private Stream<Path> entryFiles() {
+        long abandoned = System.currentTimeMillis() - ABANDONED_TEMP_FILE_MILLIS;
+        
+        try {
+            return Files.walk(baseDir.toPath())
+                    .filter(p -> !isHidden(p))
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        
+                        if (name.endsWith(".tmp")) {
+                            try {
+                                if (Files.getLastModifiedTime(p).toMillis() < abandoned) Files.deleteIfExists(p);
+                            } catch (IOException e) {
+                                // Renamed into place, or cleaned up by its writer
+                            }
+                            return false;
+                        }
+                        
+                        return name.equals(CacheFormat.JSON.getFileName()) || name.equals(CacheFormat.SMILE.getFileName());
+                    });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not walk cache directory: " + baseDir, e);
+        }
+    }
+    
+    /**
+     * @return The location of the entry held in this file, relative to the base directory
+     */
+    private String location(Path entryFile) {
+        return baseDir.toPath().relativize(entryFile.getParent()).toString().replace(File.separatorChar, '/');
+    }
+    
+    private void deleteIfEmpty(Path dir) {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // Not empty, so still in use
+        }
+    }
+    
+    /**
+     * Marks the entry at this location as just used, for the sweeper's eviction order. The entry's own timestamp, which its expiry is based on, is unchanged.
+     */
+    private void touch(String location) {
+        File file = findFile(location);
+        if (file == null) return;
+        
+        try {
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to record access to cache entry: " + location, e);
+        }
+    }
+    
     @Override
 	public String toString() {
 		return "File System Cache (" + baseDir.getAbsolutePath() + "]";
@@ -119,23 +832,48 @@ public class FileSystemLegiscanCache implements LegiscanCache {
 
     @Override
     public void remove(String cacheKey) {
-        File file = resolvePath(cacheKey);
-        if (file.exists()) {
-            try {
-                Files.delete(file.toPath());
-                LOGGER.fine("Cache file deleted for key: " + cacheKey);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Failed to delete cache file for key: " + cacheKey, e);
-            }
+        try {
+            String location = locate(cacheKey);
+            withLock(location, () -> {
+                if (delete(location)) LOGGER.fine("Cache file deleted for key: " + cacheKey);
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete cache file for key: " + cacheKey, e);
         }
     }
     
     @Override
 	public boolean presentAndValid(String key) {
-    	return peek(key).isPresent();
+    	return peekMetadata(key).filter(metadata -> !metadata.isExpired()).isPresent();
 	}
     
-    protected long ttlForCacheKey(String cacheKey) {
-    	return CachedLegiscanService.isCacheKeyStatic(cacheKey) ? 0 : defaultTtlSecs;
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (sweeper != null) {
+                // Let a sweep in progress finish, rather than interrupting it while it holds a lock file
+                sweeper.shutdown();
+                try {
+                    sweeper.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sweeper = null;
+            }
+        }
+        
+        batchPool.shutdown();
+        
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i].lock();
+            try {
+                if (lockFiles[i] != null) {
+                    lockFiles[i].close();
+                    lockFiles[i] = null;
+                }
+            } finally {
+                locks[i].unlock();
+            }
+        }
     }
 }
@@ -0,0 +1,212 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * Keeps a {@link ChangeHashIndex} in sync with the bills written to a cache. Place this directly in front of the durable cache, beneath any
+ * write-behind or in-memory tier, so that bills are indexed only once they are stored.
+ *
+ * If the cache's TTL policy is given, each bill is indexed with the timestamp and TTL it is written with, without reading anything back from the
+ * cache. Bills written as anything other than a LegiscanResponse, such as entries restored from a snapshot, are converted in memory. Caches log and
+ * swallow failed writes, so a bill whose write failed stays indexed, and is fetched again the first time it is read.
+ *
+ * Otherwise, the entry's metadata is read back from the cache after every write of a bill, and the bill is indexed only if the write actually
+ * landed. A bill whose write failed is dropped from the index instead.
+ *
+ * Only writes and removals made through this cache are seen. Entries the cache deletes itself once they have expired stay indexed as expired, so
+ * they are checked in the cache again on the next masterlist diff. Entries deleted before they expire, for example by the file system cache's disk
+ * budget, stay indexed as unexpired until their indexed TTL passes, and are fetched again the first time they are read.
+ */
+public class IndexedLegiscanCache implements LegiscanCache {
+
+	private static final String BILL_PREFIX = "getbill/";
+
+	@Getter
+	private final LegiscanCache delegate;
+
+	@Getter
+	private final ChangeHashIndex index;
+
+	private final ObjectMapper objectMapper;
+
+	private final CacheTtlPolicy ttlPolicy;
+
+	/**
+	 * Creates an index which reads back the metadata of every bill written, since the cache's TTL policy is unknown.
+	 */
+	public IndexedLegiscanCache(LegiscanCache delegate, ChangeHashIndex index) {
+		this(delegate, index, null, null);
+	}
+
+	/**
+	 * @param objectMapper Converts bills written as anything other than a LegiscanResponse. May be null, in which case they are read back from the
+	 * cache instead.
+	 * @param ttlPolicy The cache's TTL policy, which decides the TTL of bills put without one. May be null, in which case the metadata of every bill
+	 * written is read back from the cache instead.
+	 */
+	public IndexedLegiscanCache(LegiscanCache delegate, ChangeHashIndex index, ObjectMapper objectMapper, CacheTtlPolicy ttlPolicy) {
+		this.delegate = delegate;
+		this.index = index;
+		this.objectMapper = objectMapper;
+		this.ttlPolicy = ttlPolicy;
+	}
+
+	@Override
+	public Optional<CachedEntry<Object>> peek(String key) {
+		return delegate.peek(key);
+	}
+
+	@Override
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		return delegate.peek(key, typeRef);
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
+		return delegate.peekMetadata(key);
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return delegate.getOrExpire(key);
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		return delegate.getOrExpire(key, typeRef);
+	}
+
+	@Override
+	public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+		return delegate.getAll(keys, typeRef);
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		long writtenAfter = Instant.now().getEpochSecond();
+		delegate.put(key, value);
+		index(key, value, writtenAfter, ttlPolicy != null ? ttlPolicy.ttlSecs(key, value) : null);
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		long writtenAfter = Instant.now().getEpochSecond();
+		delegate.put(key, value, ttlSecs);
+		index(key, value, writtenAfter, ttlPolicy != null ? ttlSecs : null);
+	}
+
+	@Override
+	public void putAll(Map<String, ?> values) {
+		long writtenAfter = Instant.now().getEpochSecond();
+		delegate.putAll(values);
+		values.forEach((key, value) -> index(key, value, writtenAfter, ttlPolicy != null ? ttlPolicy.ttlSecs(key, value) : null));
+	}
+
+	@Override
+	public void putEntry(String key, CachedEntry<?> entry) {
+		delegate.putEntry(key, entry);
+
+		// The entry keeps its own timestamp and TTL, or is re-put with its remaining TTL, which expires it at the same time
+		index(key, entry.getValue(), Math.min(entry.getTimestamp(), Instant.now().getEpochSecond()), ttlPolicy != null ? entry.getTtlSecs() : null);
+	}
+
+	@Override
+	public List<String> keys(String prefix) {
+		return delegate.keys(prefix);
+	}
+
+	@Override
+	public void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+		delegate.forEachEntry(prefix, filter, visitor);
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		return delegate.presentAndValid(key);
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		delegate.remove(cacheKey);
+
+		Integer billId = billId(cacheKey);
+		if (billId != null) index.remove(billId);
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+	/**
+	 * Indexes a bill which was just written. If its TTL is known, the bill is indexed as written at writtenAfter, which is no later than the cache
+	 * stamped it. Otherwise it is indexed only if its entry is in the cache and no older than the write.
+	 */
+	private void index(String key, Object value, long writtenAfter, Long ttlSecs) {
+		Integer billId = billId(key);
+		if (billId == null) return;
+
+		LegiscanBillView bill;
+		CachedEntryMetadata metadata;
+
+		if (ttlSecs != null && (value instanceof LegiscanResponse || objectMapper != null)) {
+			bill = bill(value);
+			metadata = new CachedEntryMetadata(writtenAfter, ttlSecs);
+		} else if (value instanceof LegiscanResponse response) {
+			bill = response.getBill();
+			metadata = bill != null ? delegate.peekMetadata(key).orElse(null) : null;
+		} else {
+			var entry = delegate.peek(key, new TypeReference<LegiscanResponse>() {}).orElse(null);
+			bill = entry != null ? entry.getValue().getBill() : null;
+			metadata = entry != null ? new CachedEntryMetadata(entry.getTimestamp(), entry.getTtlSecs()) : null;
+		}
+
+		if (bill != null && billId.equals(bill.getBillId()) && metadata != null && metadata.getTimestamp() >= writtenAfter) {
+			index.put(billId, bill.getChangeHash(), metadata);
+		} else {
+			index.remove(billId);
+		}
+	}
+
+	/**
+	 * @return The bill held by a written value, or null if it holds none
+	 */
+	private LegiscanBillView bill(Object value) {
+		if (value instanceof LegiscanResponse response) return response.getBill();
+		if (value == null) return null;
+
+		try {
+			return objectMapper.convertValue(value, LegiscanResponse.class).getBill();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Integer billId(String key) {
+		if (!key.startsWith(BILL_PREFIX)) return null;
+
+		try {
+			return Integer.valueOf(key.substring(BILL_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
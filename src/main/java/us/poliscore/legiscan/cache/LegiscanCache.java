@@ -1,9 +1,17 @@
 package us.poliscore.legiscan.cache;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import lombok.AllArgsConstructor;
@@ -11,14 +19,34 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import us.poliscore.legiscan.view.LegiscanResponse;
 
-public interface LegiscanCache {
+public interface LegiscanCache extends Closeable {
     /**
      * Returns the raw cache value, if it exists. The object may or may not be expired. If it is expired, it will not be removed from the cache.
      * 
      * @param key
      * @return
      */
-    public Optional<CachedEntry> peek(String key);
+    public Optional<CachedEntry<Object>> peek(String key);
+    
+    /**
+     * Returns the cache value, bound to the requested type, if it exists. The object may or may not be expired. If it is expired, it will not be removed from the cache.
+     * 
+     * @param key
+     * @param typeRef
+     * @return
+     */
+    public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef);
+    
+    /**
+     * Returns only the timestamp and TTL of the cache value, if it exists. Implementations should answer this without reading the value itself, so
+     * that expiry checks stay cheap for large entries.
+     * 
+     * @param key
+     * @return
+     */
+    public default Optional<CachedEntryMetadata> peekMetadata(String key) {
+    	return peek(key).map(entry -> new CachedEntryMetadata(entry.getTimestamp(), entry.getTtlSecs()));
+    }
     
     /**
      * Attempts to fetch the object from the cache. If the object is expired, it will be cleared out from the cache and Optional.empty() will be returned.
@@ -41,6 +69,97 @@ public interface LegiscanCache {
     
     public void put(String key, Object value, long ttlSecs);
     
+    /**
+     * Returns the cache values for every given key which exists, bound to the requested type. As with peek, the values may or may not be expired, and
+     * expired values are not removed from the cache. Keys without a value are absent from the returned map.
+     * 
+     * Implementations should fetch the values together where they can. The default implementation peeks at each key in turn.
+     * 
+     * @param keys
+     * @param typeRef
+     * @return
+     */
+    public default <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+    	var entries = new HashMap<String, CachedEntry<T>>();
+    	
+    	for (String key : keys) {
+    		peek(key, typeRef).ifPresent(entry -> entries.put(key, entry));
+    	}
+    	
+    	return entries;
+    }
+    
+    /**
+     * Returns the raw cache values for every given key which exists. See {@link #getAll(Collection, TypeReference)}.
+     * 
+     * @param keys
+     * @return
+     */
+    public default Map<String, CachedEntry<Object>> getAll(Collection<String> keys) {
+    	return getAll(keys, new TypeReference<Object>() {});
+    }
+    
+    /**
+     * Puts every value, each with the default TTL for its key. Implementations should write the values together where they can. The default
+     * implementation puts each value in turn.
+     * 
+     * @param values
+     */
+    public default void putAll(Map<String, ?> values) {
+    	values.forEach(this::put);
+    }
+    
+    /**
+     * Writes an entry as it is, keeping its timestamp and TTL, for example when restoring a snapshot. The default implementation puts the value with
+     * whatever remains of its TTL, which keeps its expiry but not its timestamp, and skips entries which have already expired.
+     * 
+     * @param key
+     * @param entry
+     */
+    public default void putEntry(String key, CachedEntry<?> entry) {
+    	if (entry.getTtlSecs() <= 0) {
+    		put(key, entry.getValue(), entry.getTtlSecs());
+    		return;
+    	}
+    	
+    	long remainingSecs = entry.getTimestamp() + entry.getTtlSecs() - Instant.now().getEpochSecond();
+    	if (remainingSecs > 0) put(key, entry.getValue(), remainingSecs);
+    }
+    
+    /**
+     * Lists the keys in the cache, whether or not their values have expired.
+     * 
+     * @param prefix Only keys beginning with this prefix are listed. For example, 'getbill/' lists every cached bill, and '' lists every key.
+     * @return
+     */
+    public List<String> keys(String prefix);
+    
+    /**
+     * Visits every entry whose key begins with the prefix, whether or not it has expired, for example to export the cache. Unless an implementation
+     * says otherwise, entries written while the visit is in progress may or may not be visited.
+     * 
+     * The default implementation lists the keys, then reads their entries a batch at a time. Implementations which can walk their entries directly
+     * should override it, so that the keys need not be listed up front either.
+     * 
+     * @param prefix Only entries whose keys begin with this prefix are visited, as for {@link #keys(String)}
+     * @param filter Decides from an entry's metadata whether it is visited, so that unwanted entries are skipped without reading their values
+     * @param visitor
+     */
+    public default void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+    	var keys = keys(prefix).stream().filter(key -> peekMetadata(key).filter(filter).isPresent()).toList();
+    	int batchSize = 256;
+    	
+    	for (int start = 0; start < keys.size(); start += batchSize) {
+    		var batch = keys.subList(start, Math.min(start + batchSize, keys.size()));
+    		var entries = getAll(batch);
+    		
+    		for (String key : batch) {
+    			var entry = entries.get(key);
+    			if (entry != null) visitor.visit(key, entry); // Otherwise removed since it was listed
+    		}
+    	}
+    }
+    
     /**
      * Returns true if and only if the cache contains a value for the given key and the value is not expired.
      * 
@@ -51,11 +170,31 @@ public interface LegiscanCache {
     
 	public void remove(String cacheKey);
 	
+	/**
+	 * Releases any files, threads or other resources held by the cache. The default implementation does nothing.
+	 */
+	@Override
+	public default void close() throws IOException {
+		// no-op
+	}
+	
+	/**
+	 * Receives the entries visited by {@link LegiscanCache#forEachEntry(String, Predicate, EntryVisitor)}.
+	 */
+	@FunctionalInterface
+	public interface EntryVisitor {
+		void visit(String key, CachedEntry<Object> entry) throws IOException;
+	}
+	
+	/**
+	 * A cached value along with its expiry metadata. The metadata is serialized ahead of the value, so that it can be read without parsing the value.
+	 */
 	@Data
     @NoArgsConstructor
     @AllArgsConstructor
-    public static class CachedEntry {
-        private Object value;
+    @JsonPropertyOrder({ "timestamp", "ttlSecs", "value" })
+    public static class CachedEntry<T> {
+        private T value;
         private long timestamp;
         private long ttlSecs;
         
@@ -64,4 +203,19 @@ public interface LegiscanCache {
             return getTtlSecs() > 0 && Instant.now().getEpochSecond() > getTimestamp() + getTtlSecs();
         }
     }
+	
+	/**
+	 * The expiry metadata of a cached value, without the value itself.
+	 */
+	@Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CachedEntryMetadata {
+        private long timestamp;
+        private long ttlSecs;
+        
+        public boolean isExpired() {
+            return getTtlSecs() > 0 && Instant.now().getEpochSecond() > getTimestamp() + getTtlSecs();
+        }
+    }
 }
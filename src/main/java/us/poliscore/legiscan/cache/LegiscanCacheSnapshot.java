@@ -0,0 +1,204 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.service.CachedLegiscanService;
+
+/**
+ * Exports the entries of a cache to a single compressed archive, and imports them into another cache, so that a new node can start from a copy of
+ * an existing node's cache rather than rebuilding it from Legiscan.
+ *
+ * An archive is a gzip compressed stream of Smile encoded records: a header, followed by one record per entry holding the entry's key, timestamp,
+ * TTL and value. Entries keep their timestamps and TTLs through an export and import, so an entry expires on the importing node exactly when it
+ * would have on the exporting one. Expired entries are exported as well, since they can still be revalidated rather than fetched again.
+ *
+ * Entries are streamed from the cache with {@link LegiscanCache#forEachEntry(String, java.util.function.Predicate, LegiscanCache.EntryVisitor)},
+ * so an export is only a point-in-time view of the cache if the cache's walk is. An {@link MVStoreLegiscanCache}'s is; with other caches, entries
+ * written while an export is in progress may or may not be included. The archive is written to a temporary file and renamed into place once
+ * complete, so a partial archive is never left behind.
+ *
+ * Importing through a {@link CachedLegiscanService}'s cache (see {@link CachedLegiscanService#getCache()}) also updates the service's change hash
+ * index with each imported bill.
+ */
+public class LegiscanCacheSnapshot {
+
+	private static final Logger LOGGER = Logger.getLogger(LegiscanCacheSnapshot.class.getName());
+
+	private static final String FORMAT = "legiscan-cache-snapshot";
+
+	private static final int VERSION = 1;
+
+	/**
+	 * The number of entries written to a cache in one batch.
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	private final ObjectMapper objectMapper;
+
+	private final SmileFactory smileFactory = new SmileFactory();
+
+	public LegiscanCacheSnapshot(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		this.smileFactory.setStreamReadConstraints(objectMapper.getFactory().streamReadConstraints());
+	}
+
+	/**
+	 * Exports every entry in the cache which was written after the given time.
+	 *
+	 * @param cache The cache to export
+	 * @param archive The archive to write. Replaced if it exists.
+	 * @param sinceEpochSecs Only entries whose timestamp is after this time are exported, so that an incremental snapshot can be taken on top of an
+	 *  earlier one. 0 exports every entry.
+	 * @return The number of entries exported
+	 */
+	public int exportCache(LegiscanCache cache, Path archive, long sinceEpochSecs) throws IOException {
+		long createdAt = Instant.now().getEpochSecond();
+
+		Path dir = archive.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, archive.getFileName().toString(), ".tmp");
+		int[] exported = new int[1];
+
+		try {
+			try (var out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024), 64 * 1024);
+				 var generator = smileFactory.createGenerator(out)) {
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				objectMapper.writeValue(generator, new SnapshotHeader(FORMAT, VERSION, createdAt, sinceEpochSecs));
+
+				// Entries too old to export are skipped on their metadata alone, without reading their values
+				cache.forEachEntry("", metadata -> metadata.getTimestamp() > sinceEpochSecs, (key, entry) -> {
+					objectMapper.writeValue(generator, new SnapshotRecord(key, entry.getTimestamp(), entry.getTtlSecs(), entry.getValue()));
+					exported[0]++;
+				});
+			}
+
+			try {
+				Files.move(temp, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		LOGGER.info("Exported " + exported[0] + " entries from " + cache + " to " + archive);
+		return exported[0];
+	}
+
+	/**
+	 * Imports every entry in the archive, replacing any entry already cached under the same key. The archive is streamed, so only the batches being
+	 * written are held in memory.
+	 *
+	 * @param cache The cache to import into
+	 * @param archive An archive written by {@link #exportCache(LegiscanCache, Path, long)}
+	 * @param parallelism The maximum number of batches written to the cache at once
+	 * @return The number of entries imported
+	 */
+	public int importCache(LegiscanCache cache, Path archive, int parallelism) throws IOException {
+		if (parallelism < 1) throw new IllegalArgumentException("Import parallelism must be at least 1");
+
+		var permits = new Semaphore(parallelism);
+		var futures = new ArrayList<Future<?>>();
+		int imported = 0;
+
+		try (var in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive), 64 * 1024), 64 * 1024);
+			 var parser = smileFactory.createParser(in);
+			 var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Not a cache snapshot: " + archive);
+
+			var header = objectMapper.readValue(parser, SnapshotHeader.class);
+			if (!FORMAT.equals(header.getFormat()) || header.getVersion() != VERSION) {
+				throw new IOException("Unsupported cache snapshot [" + header.getFormat() + " v" + header.getVersion() + "]: " + archive);
+			}
+
+			var batch = new ArrayList<SnapshotRecord>(BATCH_SIZE);
+
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				batch.add(objectMapper.readValue(parser, SnapshotRecord.class));
+				imported++;
+
+				if (batch.size() == BATCH_SIZE) {
+					futures.add(submit(executor, permits, cache, batch));
+					batch = new ArrayList<SnapshotRecord>(BATCH_SIZE);
+				}
+			}
+
+			if (!batch.isEmpty()) futures.add(submit(executor, permits, cache, batch));
+
+			for (var future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while importing " + archive, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to import " + archive, e.getCause());
+		}
+
+		LOGGER.info("Imported " + imported + " entries from " + archive + " into " + cache);
+		return imported;
+	}
+
+	/**
+	 * Waits for a free permit before submitting, so that reading the archive never runs more than a few batches ahead of the cache.
+	 */
+	private Future<?> submit(ExecutorService executor, Semaphore permits, LegiscanCache cache, List<SnapshotRecord> batch) throws InterruptedException {
+		permits.acquire();
+
+		return executor.submit(() -> {
+			try {
+				for (var record : batch) {
+					cache.putEntry(record.getKey(), new CachedEntry<Object>(record.getValue(), record.getTimestamp(), record.getTtlSecs()));
+				}
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	private static class SnapshotHeader {
+		private String format;
+		private int version;
+		private long createdAt;
+		private long since;
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	private static class SnapshotRecord {
+		private String key;
+		private long timestamp;
+		private long ttlSecs;
+		private Object value;
+	}
+}
@@ -0,0 +1,375 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.tx.Transaction;
+import org.h2.mvstore.tx.TransactionMap;
+import org.h2.mvstore.tx.TransactionStore;
+import org.h2.mvstore.type.ByteArrayDataType;
+import org.h2.mvstore.type.StringDataType;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * A cache backed by a single H2 MVStore file. MVStore is an embedded, in-process key-value store, so no server is required.
+ *
+ * Entries are kept in a sorted map, which gives fast point lookups and cheap scans over a key prefix (see {@link #keys(String)}). The timestamp and TTL
+ * of each entry are kept in a separate map, so that expiry checks never load the entry itself. Every write goes through a transaction, and
+ * {@link #putAll(Map)} writes a whole batch in one transaction, so that readers and a crash recovery see either all of the batch or none of it.
+ *
+ * Committed transactions are persisted by MVStore's background writer within about a second, and on close.
+ */
+public class MVStoreLegiscanCache implements LegiscanCache {
+
+	private static final Logger LOGGER = Logger.getLogger(MVStoreLegiscanCache.class.getName());
+
+	private static final String ENTRIES_MAP = "entries";
+
+	private static final String METADATA_MAP = "metadata";
+
+	private static final int LOCK_TIMEOUT_MILLIS = 10_000;
+
+	private final File file;
+
+	private final CacheTtlPolicy ttlPolicy;
+
+	private final CacheEntrySerializer serializer;
+
+	private final MVStore store;
+
+	private final TransactionStore transactions;
+
+	public MVStoreLegiscanCache(File file, ObjectMapper objectMapper, int defaultTtlSecs) {
+		this(file, objectMapper, defaultTtlSecs, CacheFormat.SMILE);
+	}
+
+	/**
+	 * @param file The store file. Created if it does not exist.
+	 * @param objectMapper
+	 * @param defaultTtlSecs If > 0, applies to non-static entries unless overridden
+	 * @param format The format entries are serialized in within the store
+	 */
+	public MVStoreLegiscanCache(File file, ObjectMapper objectMapper, int defaultTtlSecs, CacheFormat format) {
+		this(file, objectMapper, CacheTtlPolicy.fixed(defaultTtlSecs), format);
+	}
+
+	/**
+	 * @param file The store file. Created if it does not exist.
+	 * @param objectMapper
+	 * @param ttlPolicy Decides the TTL of entries put without one
+	 * @param format The format entries are serialized in within the store
+	 */
+	public MVStoreLegiscanCache(File file, ObjectMapper objectMapper, CacheTtlPolicy ttlPolicy, CacheFormat format) {
+		this.file = file;
+		this.ttlPolicy = ttlPolicy;
+		this.serializer = new CacheEntrySerializer(objectMapper, format);
+
+		if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+			throw new IllegalStateException("Could not create cache directory: " + file.getParentFile());
+		}
+
+		this.store = new MVStore.Builder().fileName(file.getAbsolutePath()).open();
+		this.transactions = new TransactionStore(store);
+		this.transactions.init();
+	}
+
+	@Override
+	public Optional<CachedEntry<Object>> peek(String key) {
+		return peek(key, new TypeReference<Object>() {});
+	}
+
+	@Override
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		byte[] data = inTransaction(tx -> entries(tx).get(key));
+		if (data == null) return Optional.empty();
+
+		try {
+			return Optional.of(serializer.read(data, typeRef));
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
+		byte[] data = inTransaction(tx -> metadata(tx).get(key));
+		if (data == null) return Optional.empty();
+
+		return Optional.of(readMetadata(data));
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		Boolean expired;
+		try {
+			expired = inTransaction(tx -> {
+				var metadata = metadata(tx);
+				byte[] data = metadata.get(key);
+				if (data == null) return null;
+				if (!readMetadata(data).isExpired()) return false;
+
+				// Locks the row, so that a write which landed since it was read is seen here and kept, rather than removed
+				if (!Arrays.equals(metadata.lock(key), data)) return false;
+
+				entries(tx).remove(key);
+				metadata.remove(key);
+				return true;
+			});
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to expire cache for key: " + key, e);
+			return Optional.empty();
+		}
+
+		if (expired == null) return Optional.empty();
+
+		if (expired) {
+			LOGGER.fine("Cache expired for key: " + key);
+			return Optional.empty();
+		}
+
+		return peek(key, typeRef).map(CachedEntry::getValue);
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		put(key, value, ttlPolicy.ttlSecs(key, value));
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		try {
+			var entry = new CachedEntry<Object>(value, Instant.now().getEpochSecond(), ttlSecs);
+			byte[] data = serializer.serialize(entry);
+
+			inTransaction(tx -> {
+				write(tx, key, entry, data);
+				return null;
+			});
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+		}
+	}
+
+	/**
+	 * Reads every entry within a single transaction.
+	 */
+	@Override
+	public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+		Map<String, byte[]> data = inTransaction(tx -> {
+			var entries = entries(tx);
+			var found = new HashMap<String, byte[]>();
+
+			for (String key : keys) {
+				byte[] value = entries.get(key);
+				if (value != null) found.put(key, value);
+			}
+
+			return found;
+		});
+
+		var entries = new HashMap<String, CachedEntry<T>>();
+		data.forEach((key, value) -> {
+			try {
+				entries.put(key, serializer.read(value, typeRef));
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+			}
+		});
+
+		return entries;
+	}
+
+	/**
+	 * Writes every value in a single transaction, using the TTL policy for each key. Either all of the values are written or, if any fails, none are.
+	 */
+	@Override
+	public void putAll(Map<String, ?> values) {
+		long timestamp = Instant.now().getEpochSecond();
+		var entries = new ArrayList<CachedEntry<Object>>(values.size());
+		var data = new ArrayList<byte[]>(values.size());
+		var keys = new ArrayList<String>(values.keySet());
+
+		try {
+			for (var key : keys) {
+				var entry = new CachedEntry<Object>(values.get(key), timestamp, ttlPolicy.ttlSecs(key, values.get(key)));
+				entries.add(entry);
+				data.add(serializer.serialize(entry));
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to serialize cache batch of " + values.size() + " entries", e);
+			return;
+		}
+
+		try {
+			inTransaction(tx -> {
+				for (int i = 0; i < keys.size(); i++) {
+					write(tx, keys.get(i), entries.get(i), data.get(i));
+				}
+				return null;
+			});
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache batch of " + values.size() + " entries", e);
+		}
+	}
+
+	@Override
+	public void putEntry(String key, CachedEntry<?> entry) {
+		try {
+			byte[] data = serializer.serialize(entry);
+
+			inTransaction(tx -> {
+				write(tx, key, entry, data);
+				return null;
+			});
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+		}
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		return peekMetadata(key).filter(metadata -> !metadata.isExpired()).isPresent();
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		try {
+			inTransaction(tx -> {
+				entries(tx).remove(cacheKey);
+				metadata(tx).remove(cacheKey);
+				return null;
+			});
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to remove cache for key: " + cacheKey, e);
+		}
+	}
+
+	/**
+	 * @return Every key beginning with the given prefix, in sorted order. For example, 'getbill/' lists every cached bill.
+	 */
+	@Override
+	public List<String> keys(String prefix) {
+		return inTransaction(tx -> {
+			var keys = new ArrayList<String>();
+			var it = metadata(tx).keyIterator(prefix);
+
+			while (it.hasNext()) {
+				String key = it.next();
+				if (!key.startsWith(prefix)) break;
+
+				keys.add(key);
+			}
+
+			return keys;
+		});
+	}
+
+	/**
+	 * Walks the entries in key order with a single iterator, which reads from the version of the store that was current when the walk began. The
+	 * entries visited are therefore a point-in-time view of the cache: an entry written or removed while the walk is in progress is visited as it
+	 * was before.
+	 */
+	@Override
+	public void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+		var tx = transactions.begin();
+
+		try {
+			var it = entries(tx).entryIterator(prefix, null);
+
+			while (it.hasNext()) {
+				var next = it.next();
+				String key = next.getKey();
+				if (!key.startsWith(prefix)) break;
+
+				CachedEntry<Object> entry;
+				try {
+					if (!filter.test(serializer.readMetadata(new ByteArrayInputStream(next.getValue())))) continue;
+
+					entry = serializer.read(next.getValue());
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+					continue;
+				}
+
+				visitor.visit(key, entry);
+			}
+		} finally {
+			tx.commit();
+		}
+	}
+
+	/**
+	 * @return The number of keys in the cache
+	 */
+	public long size() {
+		return inTransaction(tx -> metadata(tx).sizeAsLong());
+	}
+
+	@Override
+	public void close() throws IOException {
+		transactions.close();
+		store.close();
+	}
+
+	@Override
+	public String toString() {
+		return "MVStore Cache (" + file.getAbsolutePath() + ")";
+	}
+
+	private static CachedEntryMetadata readMetadata(byte[] data) {
+		var buffer = ByteBuffer.wrap(data);
+		return new CachedEntryMetadata(buffer.getLong(), buffer.getLong());
+	}
+
+	private void write(Transaction tx, String key, CachedEntry<?> entry, byte[] data) {
+		entries(tx).put(key, data);
+		metadata(tx).put(key, ByteBuffer.allocate(16).putLong(entry.getTimestamp()).putLong(entry.getTtlSecs()).array());
+	}
+
+	private TransactionMap<String, byte[]> entries(Transaction tx) {
+		return tx.openMap(ENTRIES_MAP, StringDataType.INSTANCE, ByteArrayDataType.INSTANCE);
+	}
+
+	private TransactionMap<String, byte[]> metadata(Transaction tx) {
+		return tx.openMap(METADATA_MAP, StringDataType.INSTANCE, ByteArrayDataType.INSTANCE);
+	}
+
+	private <R> R inTransaction(Function<Transaction, R> work) {
+		var tx = transactions.begin();
+		tx.setTimeoutMillis(LOCK_TIMEOUT_MILLIS);
+
+		try {
+			R result = work.apply(tx);
+			tx.commit();
+			return result;
+		} catch (RuntimeException e) {
+			tx.rollback();
+			throw e;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package us.poliscore.legiscan.cache;
 
+import java.util.List;
 import java.util.Optional;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -23,6 +24,11 @@ public class NoOpLegiscanCache implements LegiscanCache {
 		return "NO OP Cache";
 	}
 
+	@Override
+	public List<String> keys(String prefix) {
+		return List.of();
+	}
+	
 	@Override
 	public void remove(String cacheKey) {
 		// no-op
@@ -34,7 +40,17 @@ public class NoOpLegiscanCache implements LegiscanCache {
 	}
 
 	@Override
-	public Optional<CachedEntry> peek(String key) {
+	public Optional<CachedEntry<Object>> peek(String key) {
+		return Optional.empty();
+	}
+	
+	@Override
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		return Optional.empty();
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
 		return Optional.empty();
 	}
 
@@ -0,0 +1,715 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * A log structured cache. Rather than one file per key, entries are appended to a small number of large segment files, and an in-memory index maps
+ * each key to the location of its latest entry, along with the entry's timestamp and TTL. Lookups are a single positional read, and expiry checks
+ * require no I/O at all.
+ *
+ * Overwritten, removed and expired entries leave garbage behind in older segments. Once a segment is mostly garbage, compaction copies its remaining
+ * live entries to the end of the log, drops its expired ones, and deletes it. Compaction runs periodically on a background thread, or may be invoked
+ * directly with {@link #compact()}. Sealed segments are never written to, so compaction reads them without blocking writers, which wait only while
+ * each surviving entry is copied.
+ *
+ * Each record carries a CRC, so a record torn by a crash is detected when the log is replayed on open, and the log is truncated to the last intact record.
+ * Writes are not forced to disk individually; segments are forced when they are rolled and when the cache is closed. A batch written with
+ * {@link #putAll(Map)} is group committed: it is appended as a whole and then forced to disk once.
+ *
+ * Keys must be non-empty, and at most {@value #MAX_KEY_LENGTH} bytes once encoded as UTF-8.
+ *
+ * A segment directory must only be opened by one cache (and one process) at a time.
+ */
+public final class SegmentLegiscanCache implements LegiscanCache {
+
+	private static final Logger LOGGER = Logger.getLogger(SegmentLegiscanCache.class.getName());
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	// crc, key length, value length, timestamp, ttl
+	private static final int RECORD_HEADER_LENGTH = 4 + 4 + 4 + 8 + 8;
+
+	private static final int TOMBSTONE = -1;
+
+	public static final int MAX_KEY_LENGTH = 64 * 1024;
+
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+	public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(5);
+
+	/**
+	 * A sealed segment is compacted once at least this fraction of it is garbage.
+	 */
+	private static final double COMPACTION_THRESHOLD = 0.5;
+
+	private final File directory;
+
+	private final CacheTtlPolicy ttlPolicy;
+
+	private final long maxSegmentBytes;
+
+	private final CacheEntrySerializer serializer;
+
+	private final Map<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+
+	/**
+	 * Readers hold the read lock while resolving and reading a location. Compaction takes the write lock before deleting a segment, so that no reader is
+	 * left holding a location in a deleted segment. All mutations are additionally serialized on this cache's monitor.
+	 */
+	private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+	private final ScheduledExecutorService compactor;
+
+	/**
+	 * Held for the whole of a compaction, so that only one runs at a time and the cache is not closed beneath it.
+	 */
+	private final Object compactionLock = new Object();
+
+	private volatile Segment active;
+
+	private volatile boolean closed;
+
+	public SegmentLegiscanCache(File directory, ObjectMapper objectMapper, int defaultTtlSecs) {
+		this(directory, objectMapper, defaultTtlSecs, CacheFormat.SMILE, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_COMPACTION_INTERVAL);
+	}
+
+	/**
+	 * @param directory The directory to store segment files in
+	 * @param objectMapper
+	 * @param defaultTtlSecs If > 0, applies to non-static entries unless overridden
+	 * @param format The format entries are serialized in within a segment
+	 * @param maxSegmentBytes The size at which the active segment is sealed and a new one started
+	 * @param compactionInterval How often to check for segments worth compacting. Zero or null disables background compaction.
+	 */
+	public SegmentLegiscanCache(File directory, ObjectMapper objectMapper, int defaultTtlSecs, CacheFormat format, long maxSegmentBytes, Duration compactionInterval) {
+		this(directory, objectMapper, CacheTtlPolicy.fixed(defaultTtlSecs), format, maxSegmentBytes, compactionInterval);
+	}
+
+	/**
+	 * @param directory The directory to store segment files in
+	 * @param objectMapper
+	 * @param ttlPolicy Decides the TTL of entries put without one
+	 * @param format The format entries are serialized in within a segment
+	 * @param maxSegmentBytes The size at which the active segment is sealed and a new one started
+	 * @param compactionInterval How often to check for segments worth compacting. Zero or null disables background compaction.
+	 */
+	public SegmentLegiscanCache(File directory, ObjectMapper objectMapper, CacheTtlPolicy ttlPolicy, CacheFormat format, long maxSegmentBytes, Duration compactionInterval) {
+		this.directory = directory;
+		this.ttlPolicy = ttlPolicy;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.serializer = new CacheEntrySerializer(objectMapper, format);
+
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IllegalStateException("Could not create cache directory: " + directory);
+		}
+
+		try {
+			open();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open segment cache: " + directory, e);
+		}
+
+		if (compactionInterval != null && !compactionInterval.isZero()) {
+			this.compactor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("legiscan-segment-compactor").factory());
+			this.compactor.scheduleWithFixedDelay(this::compactQuietly, compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+		} else {
+			this.compactor = null;
+		}
+	}
+
+	@Override
+	public Optional<CachedEntry<Object>> peek(String key) {
+		return peek(key, new TypeReference<Object>() {});
+	}
+
+	@Override
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		try {
+			byte[] data = read(key);
+			if (data == null) return Optional.empty();
+
+			return Optional.of(serializer.read(data, typeRef));
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
+		var location = index.get(key);
+		if (location == null) return Optional.empty();
+
+		return Optional.of(new CachedEntryMetadata(location.timestamp, location.ttlSecs));
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		var location = index.get(key);
+		if (location == null) return Optional.empty();
+
+		if (location.isExpired()) {
+			LOGGER.fine("Cache expired for key: " + key);
+			expire(key, location);
+			return Optional.empty();
+		}
+
+		return peek(key, typeRef).map(CachedEntry::getValue);
+	}
+
+	/**
+	 * Removes the key only if the index still holds the expired location, so that a write which landed since it was read is kept.
+	 */
+	private synchronized void expire(String key, Location expired) {
+		if (index.get(key) != expired) return;
+
+		try {
+			append(key, null, 0, 0);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to remove cache for key: " + key, e);
+		}
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		put(key, value, ttlPolicy.ttlSecs(key, value));
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		checkKey(key);
+
+		try {
+			long timestamp = Instant.now().getEpochSecond();
+			byte[] data = serializer.serialize(new CachedEntry<Object>(value, timestamp, ttlSecs));
+
+			append(key, data, timestamp, ttlSecs);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+		}
+	}
+
+	@Override
+	public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+		Map<String, byte[]> data;
+		try {
+			data = readAll(keys);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to read cache batch of " + keys.size() + " keys", e);
+			return Map.of();
+		}
+
+		var entries = new HashMap<String, CachedEntry<T>>();
+		data.forEach((key, value) -> {
+			try {
+				entries.put(key, serializer.read(value, typeRef));
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to read cache for key: " + key, e);
+			}
+		});
+
+		return entries;
+	}
+
+	@Override
+	public void putAll(Map<String, ?> values) {
+		long timestamp = Instant.now().getEpochSecond();
+		var data = new LinkedHashMap<String, byte[]>();
+		var ttls = new HashMap<String, Long>();
+
+		values.keySet().forEach(SegmentLegiscanCache::checkKey);
+
+		values.forEach((key, value) -> {
+			try {
+				long ttlSecs = ttlPolicy.ttlSecs(key, value);
+				data.put(key, serializer.serialize(new CachedEntry<Object>(value, timestamp, ttlSecs)));
+				ttls.put(key, ttlSecs);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+			}
+		});
+
+		try {
+			synchronized (this) {
+				for (var entry : data.entrySet()) {
+					append(entry.getKey(), entry.getValue(), timestamp, ttls.get(entry.getKey()));
+				}
+
+				active.channel.force(false);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache batch of " + values.size() + " entries", e);
+		}
+	}
+
+	@Override
+	public void putEntry(String key, CachedEntry<?> entry) {
+		checkKey(key);
+
+		try {
+			append(key, serializer.serialize(entry), entry.getTimestamp(), entry.getTtlSecs());
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+		}
+	}
+
+	@Override
+	public List<String> keys(String prefix) {
+		return index.keySet().stream().filter(key -> key.startsWith(prefix)).toList();
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		var location = index.get(key);
+		return location != null && !location.isExpired();
+	}
+
+	@Override
+	public synchronized void remove(String cacheKey) {
+		if (!index.containsKey(cacheKey)) return;
+
+		try {
+			append(cacheKey, null, 0, 0);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to remove cache for key: " + cacheKey, e);
+		}
+	}
+
+	/**
+	 * @return The number of keys in the cache
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return The number of segment files currently on disk
+	 */
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Compacts every sealed segment which is mostly garbage, counting expired entries as garbage. Its live entries are copied to the end of the log, its
+	 * expired entries are dropped, and it is deleted.
+	 */
+	public void compact() throws IOException {
+		synchronized (compactionLock) {
+			if (closed) return;
+
+			// Live bytes held by expired entries, per segment
+			var expiredBytes = new HashMap<Integer, Long>();
+			for (var location : index.values()) {
+				if (location.isExpired()) expiredBytes.merge(location.segment, location.recordLength(), Long::sum);
+			}
+
+			Segment current = active;
+			for (var segment : new ArrayList<Segment>(segments.headMap(current.id).values())) {
+				long size = segment.size.get();
+				long liveBytes = segment.liveBytes.get() - expiredBytes.getOrDefault(segment.id, 0L);
+				if (size > 0 && liveBytes > size * (1 - COMPACTION_THRESHOLD)) continue;
+
+				if (!relocate(segment)) return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (compactor != null) {
+			// Not interrupted, since an interrupt would close the segment channels beneath a running compaction
+			compactor.shutdown();
+		}
+
+		synchronized (this) {
+			closed = true;
+		}
+
+		// Waits for a running compaction, which stops at its next record
+		synchronized (compactionLock) {
+			synchronized (this) {
+				if (active != null) {
+					active.channel.force(false);
+				}
+
+				for (var segment : segments.values()) {
+					segment.channel.close();
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Segment Cache (" + directory.getAbsolutePath() + ", " + index.size() + " keys in " + segments.size() + " segments)";
+	}
+
+	private byte[] read(String key) throws IOException {
+		segmentLock.readLock().lock();
+		try {
+			var location = index.get(key);
+			return location == null ? null : readValue(location);
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the values of every key which exists in one pass, in log order, so that the reads move forward through each segment rather than seeking back
+	 * and forth.
+	 */
+	private Map<String, byte[]> readAll(Collection<String> keys) throws IOException {
+		segmentLock.readLock().lock();
+		try {
+			var located = new ArrayList<Map.Entry<String, Location>>(keys.size());
+			for (String key : keys) {
+				var location = index.get(key);
+				if (location != null) located.add(Map.entry(key, location));
+			}
+
+			located.sort(Comparator.comparingInt((Map.Entry<String, Location> e) -> e.getValue().segment).thenComparingLong(e -> e.getValue().offset));
+
+			var data = new HashMap<String, byte[]>();
+			for (var entry : located) {
+				data.put(entry.getKey(), readValue(entry.getValue()));
+			}
+
+			return data;
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Must be called while holding the read lock.
+	 */
+	private byte[] readValue(Location location) throws IOException {
+		var buffer = ByteBuffer.allocate(location.valueLength);
+		long position = location.offset + RECORD_HEADER_LENGTH + location.keyLength;
+		var channel = segments.get(location.segment).channel;
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of segment " + location.segment);
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Appends a record to the active segment and points the index at it. A null value appends a tombstone and removes the key from the index.
+	 */
+	private synchronized void append(String key, byte[] value, long timestamp, long ttlSecs) throws IOException {
+		byte[] keyBytes = checkKey(key);
+		int valueLength = value == null ? TOMBSTONE : value.length;
+		int recordLength = RECORD_HEADER_LENGTH + keyBytes.length + Math.max(valueLength, 0);
+
+		if (active.size.get() > 0 && active.size.get() + recordLength > maxSegmentBytes) {
+			roll();
+		}
+
+		var buffer = ByteBuffer.allocate(recordLength);
+		buffer.putInt(0); // CRC placeholder
+		buffer.putInt(keyBytes.length);
+		buffer.putInt(valueLength);
+		buffer.putLong(timestamp);
+		buffer.putLong(ttlSecs);
+		buffer.put(keyBytes);
+		if (value != null) buffer.put(value);
+
+		var crc = new CRC32C();
+		crc.update(buffer.array(), 4, recordLength - 4);
+		buffer.putInt(0, (int) crc.getValue());
+		buffer.flip();
+
+		long offset = active.size.get();
+		while (buffer.hasRemaining()) {
+			active.channel.write(buffer, offset + buffer.position());
+		}
+		active.size.addAndGet(recordLength);
+
+		Location previous;
+		if (value == null) {
+			previous = index.remove(key);
+		} else {
+			active.liveBytes.addAndGet(recordLength);
+			previous = index.put(key, new Location(active.id, offset, keyBytes.length, valueLength, timestamp, ttlSecs));
+		}
+
+		release(previous);
+	}
+
+	/**
+	 * Rejects keys which could not be read back. A record with an empty or oversized key is indistinguishable from a torn one, so replaying the log
+	 * would stop at it and truncate every record after it.
+	 *
+	 * @return The key encoded as UTF-8
+	 */
+	private static byte[] checkKey(String key) {
+		if (key == null || key.isEmpty()) throw new IllegalArgumentException("Cache key must not be empty");
+
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > MAX_KEY_LENGTH) throw new IllegalArgumentException("Cache key is " + keyBytes.length + " bytes, longer than the maximum of " + MAX_KEY_LENGTH);
+
+		return keyBytes;
+	}
+
+	private void release(Location location) {
+		if (location == null) return;
+
+		var segment = segments.get(location.segment);
+		if (segment != null) segment.liveBytes.addAndGet(-location.recordLength());
+	}
+
+	private synchronized void roll() throws IOException {
+		active.channel.force(false);
+		active = createSegment(active.id + 1);
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		Path path = directory.toPath().resolve(String.format("%06d", id) + SEGMENT_SUFFIX);
+		var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		var segment = new Segment(id, path, channel);
+		segment.size.set(channel.size());
+		segments.put(id, segment);
+		return segment;
+	}
+
+	/**
+	 * Copies the segment's live entries to the end of the log and deletes it. The segment is sealed, so it is read without holding the monitor, which is
+	 * only taken to check and copy each entry.
+	 *
+	 * @return false if the cache was closed before the segment could be deleted
+	 */
+	private boolean relocate(Segment segment) throws IOException {
+		boolean olderSegmentExists = segments.lowerKey(segment.id) != null;
+
+		scan(segment, (offset, key, value, timestamp, ttlSecs) -> {
+			synchronized (this) {
+				if (closed) return;
+
+				if (value == null) {
+					// A tombstone only matters while an older segment might still hold an entry for its key
+					if (olderSegmentExists && !index.containsKey(key)) {
+						append(key, null, timestamp, ttlSecs);
+					}
+					return;
+				}
+
+				var location = index.get(key);
+				if (location == null || location.segment != segment.id || location.offset != offset) return;
+
+				if (!location.isExpired()) {
+					append(key, value, timestamp, ttlSecs);
+				} else if (olderSegmentExists) {
+					append(key, null, timestamp, ttlSecs);
+				} else {
+					index.remove(key);
+				}
+			}
+		});
+
+		synchronized (this) {
+			if (closed) return false;
+		}
+
+		segmentLock.writeLock().lock();
+		try {
+			segments.remove(segment.id);
+			segment.channel.close();
+			Files.deleteIfExists(segment.path);
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+
+		LOGGER.fine("Compacted segment " + segment.path);
+		return true;
+	}
+
+	private void compactQuietly() {
+		try {
+			compact();
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to compact " + this, e);
+		}
+	}
+
+	/**
+	 * Rebuilds the index by replaying every segment in order.
+	 */
+	private synchronized void open() throws IOException {
+		List<Integer> ids;
+		try (Stream<Path> files = Files.list(directory.toPath())) {
+			ids = files.map(p -> p.getFileName().toString())
+					.filter(name -> name.endsWith(SEGMENT_SUFFIX))
+					.map(name -> Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+					.sorted()
+					.toList();
+		}
+
+		for (int id : ids) {
+			var segment = createSegment(id);
+
+			long end = scan(segment, (offset, key, value, timestamp, ttlSecs) -> {
+				Location previous;
+				if (value == null) {
+					previous = index.remove(key);
+				} else {
+					var location = new Location(segment.id, offset, key.getBytes(StandardCharsets.UTF_8).length, value.length, timestamp, ttlSecs);
+					segment.liveBytes.addAndGet(location.recordLength());
+					previous = index.put(key, location);
+				}
+				release(previous);
+			});
+
+			if (end < segment.size.get()) {
+				LOGGER.warning("Truncating segment " + segment.path + " at byte " + end + " of " + segment.size.get() + ", after the last intact record.");
+				segment.channel.truncate(end);
+				segment.size.set(end);
+			}
+		}
+
+		active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+
+		LOGGER.fine("Opened " + this);
+	}
+
+	/**
+	 * Reads each intact record in the segment, in order, stopping at the end of the segment or at the first record which is incomplete or fails its CRC.
+	 *
+	 * @return The offset just past the last intact record
+	 */
+	private long scan(Segment segment, RecordVisitor visitor) throws IOException {
+		long offset = 0;
+		long size = segment.size.get();
+
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.path), 64 * 1024))) {
+			byte[] header = new byte[RECORD_HEADER_LENGTH];
+
+			while (offset + RECORD_HEADER_LENGTH <= size) {
+				in.readFully(header);
+				var buffer = ByteBuffer.wrap(header);
+				int crc = buffer.getInt();
+				int keyLength = buffer.getInt();
+				int valueLength = buffer.getInt();
+				long timestamp = buffer.getLong();
+				long ttlSecs = buffer.getLong();
+
+				if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || valueLength < TOMBSTONE) break;
+
+				long recordLength = RECORD_HEADER_LENGTH + (long) keyLength + Math.max(valueLength, 0);
+				if (offset + recordLength > size) break;
+
+				byte[] key = new byte[keyLength];
+				in.readFully(key);
+				byte[] value = valueLength == TOMBSTONE ? null : new byte[valueLength];
+				if (value != null) in.readFully(value);
+
+				var check = new CRC32C();
+				check.update(header, 4, RECORD_HEADER_LENGTH - 4);
+				check.update(key);
+				if (value != null) check.update(value);
+				if ((int) check.getValue() != crc) break;
+
+				visitor.visit(offset, new String(key, StandardCharsets.UTF_8), value, timestamp, ttlSecs);
+				offset += recordLength;
+			}
+		} catch (EOFException e) {
+			// A torn record at the end of the segment
+		}
+
+		return offset;
+	}
+
+	@FunctionalInterface
+	private interface RecordVisitor {
+		/**
+		 * @param value The serialized entry, or null for a tombstone
+		 */
+		void visit(long offset, String key, byte[] value, long timestamp, long ttlSecs) throws IOException;
+	}
+
+	private static class Segment {
+		final int id;
+		final Path path;
+		final FileChannel channel;
+		final AtomicLong size = new AtomicLong();
+		final AtomicLong liveBytes = new AtomicLong();
+
+		Segment(int id, Path path, FileChannel channel) {
+			this.id = id;
+			this.path = path;
+			this.channel = channel;
+		}
+	}
+
+	private static class Location {
+		final int segment;
+		final long offset;
+		final int keyLength;
+		final int valueLength;
+		final long timestamp;
+		final long ttlSecs;
+
+		Location(int segment, long offset, int keyLength, int valueLength, long timestamp, long ttlSecs) {
+			this.segment = segment;
+			this.offset = offset;
+			this.keyLength = keyLength;
+			this.valueLength = valueLength;
+			this.timestamp = timestamp;
+			this.ttlSecs = ttlSecs;
+		}
+
+		long recordLength() {
+			return RECORD_HEADER_LENGTH + keyLength + valueLength;
+		}
+
+		boolean isExpired() {
+			return ttlSecs > 0 && Instant.now().getEpochSecond() > timestamp + ttlSecs;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package us.poliscore.legiscan.cache;
+
+import java.util.function.Function;
+
+/**
+ * Maps cache keys to entry directories, relative to a cache's base directory, such that no directory has more than a few hundred children.
+ *
+ * A key such as 'getbill/1984092' is split into its operation ('getbill') and the rest of the key ('1984092'). The entry is stored under the operation's
+ * directory, then under two levels of directories named by a hash of the key, for 65,536 buckets per operation: 'getbill/3f/a2/1984092'. Keys without
+ * an operation are stored under a '~' directory in place of one. Each path component is encoded with {@link CacheKeyEncoder}, so the key can be
+ * recovered from its directory.
+ *
+ * An optional partitioner may add a further directory between the operation and the hash buckets, for example the state a key belongs to, so that
+ * one partition's entries can be backed up or deleted on their own: 'getbill/ca/3f/a2/1984092'.
+ */
+final class ShardedCacheLayout {
+
+	/**
+	 * Stands in for the operation of keys which do not have one. Never the encoding of an operation, since only the empty string encodes to it.
+	 */
+	private static final String NO_OPERATION = "~";
+
+	private static final String[] HEX_BYTES = new String[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			HEX_BYTES[i] = String.format("%02x", i);
+		}
+	}
+
+	private final Function<String, String> partitioner;
+
+	/**
+	 * @param partitioner Returns the partition for a key, or null for none. Must always return the same partition for the same key. May be null.
+	 */
+	ShardedCacheLayout(Function<String, String> partitioner) {
+		this.partitioner = partitioner;
+	}
+
+	/**
+	 * @return The entry directory for the key, relative to the base directory, with '/' separators
+	 */
+	String locate(String key) {
+		int slash = key.indexOf('/');
+		String operation = slash > 0 ? CacheKeyEncoder.encode(key.substring(0, slash)) : NO_OPERATION;
+		String name = CacheKeyEncoder.encode(slash > 0 ? key.substring(slash + 1) : key);
+		String partition = partitioner == null ? null : partitioner.apply(key);
+
+		int hash = mix(key.hashCode());
+
+		var path = new StringBuilder(operation.length() + name.length() + 16).append(operation).append('/');
+		if (partition != null && !partition.isEmpty()) path.append(CacheKeyEncoder.encode(partition)).append('/');
+		path.append(HEX_BYTES[(hash >>> 8) & 0xFF]).append('/').append(HEX_BYTES[hash & 0xFF]).append('/');
+		return path.append(name).toString();
+	}
+
+	/**
+	 * @param location An entry directory, relative to the base directory, with '/' separators
+	 * @return The key stored in the directory, or null if the directory is not where this layout would store any key
+	 */
+	String keyOf(String location) {
+		String[] parts = location.split("/");
+		if (parts.length != 4 && parts.length != 5) return null;
+
+		try {
+			String name = CacheKeyEncoder.decode(parts[parts.length - 1]);
+			String key = parts[0].equals(NO_OPERATION) ? name : CacheKeyEncoder.decode(parts[0]) + "/" + name;
+
+			return locate(key).equals(location) ? key : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * String hash codes of similar keys (such as sequential bill ids) differ mostly in their low bits, so they are mixed before choosing a bucket.
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+}
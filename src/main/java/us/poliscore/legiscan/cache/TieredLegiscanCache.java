@@ -0,0 +1,301 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * A two tier cache. A bounded, in-heap LRU tier holds already deserialized LegiscanResponse objects in front of any other LegiscanCache (typically
+ * disk backed), so that hot keys are served without any I/O or parsing.
+ *
+ * The memory tier is populated on reads, using the timestamp and TTL recorded by the backing cache, so entries expire from memory at the same
+ * moment they would expire on disk. Writes go straight through to the backing cache. Removing a key removes it from both tiers.
+ *
+ * Objects served from the memory tier are shared between callers, and so should be treated as read only.
+ */
+public class TieredLegiscanCache implements LegiscanCache {
+
+	private static final Logger LOGGER = Logger.getLogger(TieredLegiscanCache.class.getName());
+
+	@Getter
+	private final LegiscanCache delegate;
+
+	private final long maximumWeight;
+
+	private final ToLongFunction<LegiscanResponse> weigher;
+
+	private final LinkedHashMap<String, MemoryEntry> entries = new LinkedHashMap<String, MemoryEntry>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	/**
+	 * @param delegate The backing cache
+	 * @param maximumEntries The maximum number of responses to hold in memory
+	 */
+	public TieredLegiscanCache(LegiscanCache delegate, int maximumEntries) {
+		this(delegate, maximumEntries, value -> 1);
+	}
+
+	/**
+	 * @param delegate The backing cache
+	 * @param maximumWeight The maximum total weight of the responses held in memory
+	 * @param weigher Computes the weight of a response, for example its estimated size in bytes. See {@link #serializedSizeWeigher(ObjectMapper)}.
+	 */
+	public TieredLegiscanCache(LegiscanCache delegate, long maximumWeight, ToLongFunction<LegiscanResponse> weigher) {
+		this.delegate = delegate;
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * A weigher which estimates a response's heap footprint by its serialized JSON size. Computed once, when the response enters the memory tier.
+	 */
+	public static ToLongFunction<LegiscanResponse> serializedSizeWeigher(ObjectMapper objectMapper) {
+		return value -> {
+			try (var out = new CountingOutputStream(NullOutputStream.INSTANCE)) {
+				objectMapper.writeValue(out, value);
+				return out.getByteCount();
+			} catch (Exception e) {
+				LOGGER.log(Level.FINE, "Failed to estimate size of cached value", e);
+				return 1;
+			}
+		};
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		var memory = getMemoryEntry(key);
+		if (memory != null) return Optional.of(memory.value);
+
+		// The backing cache expires the entry itself, so that a fresh write which lands meanwhile is never removed
+		var value = delegate.getOrExpire(key).orElse(null);
+		if (value == null) return Optional.empty();
+
+		var metadata = delegate.peekMetadata(key).orElse(null);
+		if (metadata != null && !metadata.isExpired()) {
+			store(key, new MemoryEntry(value, metadata.getTimestamp(), metadata.getTtlSecs(), weigher.applyAsLong(value)));
+		}
+
+		return Optional.of(value);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		if (LegiscanResponse.class.equals(typeRef.getType())) {
+			return (Optional<T>) getOrExpire(key);
+		}
+
+		return delegate.getOrExpire(key, typeRef);
+	}
+
+	@Override
+	public Optional<CachedEntry<Object>> peek(String key) {
+		var memory = peekMemoryEntry(key);
+
+		if (memory != null) {
+			return Optional.of(new CachedEntry<Object>(memory.value, memory.timestamp, memory.ttlSecs));
+		}
+
+		return delegate.peek(key);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		var memory = LegiscanResponse.class.equals(typeRef.getType()) ? peekMemoryEntry(key) : null;
+
+		if (memory != null) {
+			return Optional.of((CachedEntry<T>) new CachedEntry<LegiscanResponse>(memory.value, memory.timestamp, memory.ttlSecs));
+		}
+
+		return delegate.peek(key, typeRef);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+		var entries = new HashMap<String, CachedEntry<T>>();
+		var misses = new ArrayList<String>();
+
+		for (String key : keys) {
+			var memory = LegiscanResponse.class.equals(typeRef.getType()) ? peekMemoryEntry(key) : null;
+
+			if (memory != null) {
+				entries.put(key, (CachedEntry<T>) new CachedEntry<LegiscanResponse>(memory.value, memory.timestamp, memory.ttlSecs));
+			} else {
+				misses.add(key);
+			}
+		}
+
+		if (!misses.isEmpty()) {
+			entries.putAll(delegate.getAll(misses, typeRef));
+		}
+
+		return entries;
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
+		var memory = peekMemoryEntry(key);
+
+		if (memory != null) {
+			return Optional.of(new CachedEntryMetadata(memory.timestamp, memory.ttlSecs));
+		}
+
+		return delegate.peekMetadata(key);
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		// The backing cache decides the TTL, so the memory tier is repopulated on the next read rather than here
+		delegate.put(key, value);
+		invalidate(key);
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		delegate.put(key, value, ttlSecs);
+
+		if (value instanceof LegiscanResponse response) {
+			store(key, new MemoryEntry(response, Instant.now().getEpochSecond(), ttlSecs, weigher.applyAsLong(response)));
+		} else {
+			invalidate(key);
+		}
+	}
+
+	@Override
+	public void putAll(Map<String, ?> values) {
+		delegate.putAll(values);
+
+		for (String key : values.keySet()) {
+			invalidate(key);
+		}
+	}
+
+	@Override
+	public void putEntry(String key, CachedEntry<?> entry) {
+		delegate.putEntry(key, entry);
+		invalidate(key);
+	}
+
+	@Override
+	public List<String> keys(String prefix) {
+		return delegate.keys(prefix);
+	}
+
+	@Override
+	public void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+		delegate.forEachEntry(prefix, filter, visitor);
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		return getMemoryEntry(key) != null || delegate.presentAndValid(key);
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		invalidate(cacheKey);
+		delegate.remove(cacheKey);
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			entries.clear();
+			weight = 0;
+		}
+
+		delegate.close();
+	}
+
+	/**
+	 * @return The number of responses currently held in memory
+	 */
+	public synchronized int memorySize() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Tiered Cache (" + memorySize() + " in memory) -> " + delegate.toString();
+	}
+
+	private synchronized MemoryEntry peekMemoryEntry(String key) {
+		return entries.get(key);
+	}
+
+	private synchronized MemoryEntry getMemoryEntry(String key) {
+		var entry = entries.get(key);
+		if (entry == null) return null;
+
+		if (entry.isExpired()) {
+			entries.remove(key);
+			weight -= entry.weight;
+			return null;
+		}
+
+		return entry;
+	}
+
+	private synchronized void store(String key, MemoryEntry entry) {
+		if (entry.weight > maximumWeight) {
+			invalidate(key);
+			return;
+		}
+
+		var previous = entries.put(key, entry);
+		if (previous != null) weight -= previous.weight;
+		weight += entry.weight;
+
+		Iterator<MemoryEntry> eldest = entries.values().iterator();
+		while (weight > maximumWeight && eldest.hasNext()) {
+			weight -= eldest.next().weight;
+			eldest.remove();
+		}
+	}
+
+	private synchronized void invalidate(String key) {
+		var previous = entries.remove(key);
+		if (previous != null) weight -= previous.weight;
+	}
+
+	private static class MemoryEntry {
+		final LegiscanResponse value;
+		final long timestamp;
+		final long ttlSecs;
+		final long weight;
+
+		MemoryEntry(LegiscanResponse value, long timestamp, long ttlSecs, long weight) {
+			this.value = value;
+			this.timestamp = timestamp;
+			this.ttlSecs = ttlSecs;
+			this.weight = weight;
+		}
+
+		boolean isExpired() {
+			return ttlSecs > 0 && Instant.now().getEpochSecond() > timestamp + ttlSecs;
+		}
+	}
+}
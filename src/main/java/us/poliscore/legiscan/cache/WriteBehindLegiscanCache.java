@@ -0,0 +1,483 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * Writes to any other LegiscanCache asynchronously. Puts and removes are queued in memory and return at once, and a background writer applies them
+ * to the backing cache, so that callers never wait on serialization or disk I/O.
+ *
+ * Queued writes are coalesced by key: writing a key which is already queued replaces the queued write rather than adding another, so a hot key is
+ * written to the backing cache at most once per batch. The writer takes every queued write at once, and writes the puts which use the backing
+ * cache's default TTL with a single {@link LegiscanCache#putAll(Map)}, so that batches grow with the write rate. Reads see queued writes immediately.
+ *
+ * The queue is bounded: once maxPending writes are queued or being written, writers block until the background writer catches up. {@link #flush()}
+ * waits for the writes queued before it to reach the backing cache, and {@link #close()} flushes before closing it. Writes made after closing are
+ * logged and dropped. Writes which are still queued when the JVM exits are lost, unless the cache is created with a shutdown hook.
+ *
+ * A queued put whose TTL is left to the backing cache reports the TTL which the backing cache's TTL policy will give it, if that policy is provided.
+ * Otherwise it reports a TTL of 0 until it is written.
+ *
+ * The background writer is started by the first write, rather than by the constructor, along with the shutdown hook if there is one.
+ */
+public class WriteBehindLegiscanCache implements LegiscanCache {
+
+	private static final Logger LOGGER = Logger.getLogger(WriteBehindLegiscanCache.class.getName());
+
+	@Getter
+	private final LegiscanCache delegate;
+
+	private final ObjectMapper objectMapper;
+
+	private final int maxPending;
+
+	/**
+	 * The backing cache's TTL policy, or null if unknown.
+	 */
+	private final CacheTtlPolicy ttlPolicy;
+
+	private final Thread writer;
+
+	private final Thread shutdownHook;
+
+	/**
+	 * Guarded by this.
+	 */
+	private boolean started = false;
+
+	/**
+	 * Writes which have not yet been taken by the writer, in the order they were first queued. Guarded by this.
+	 */
+	private LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<String, PendingWrite>();
+
+	/**
+	 * Writes which the writer is currently applying to the backing cache. Guarded by this.
+	 */
+	private Map<String, PendingWrite> writing = Map.of();
+
+	/**
+	 * The number of batches the writer has taken from the queue, and the number it has finished applying. Guarded by this.
+	 */
+	private long batchesTaken = 0;
+
+	private long batchesWritten = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Queued in place of a put to record that a key has been removed.
+	 */
+	private final PendingWrite remove = new PendingWrite(null, 0, 0, false, false);
+
+	/**
+	 * @param delegate The backing cache
+	 * @param objectMapper Used to convert queued values when they are read as a different type than they were written as
+	 * @param maxPending The maximum number of writes which may be queued or being written before writers block
+	 */
+	public WriteBehindLegiscanCache(LegiscanCache delegate, ObjectMapper objectMapper, int maxPending) {
+		this(delegate, objectMapper, maxPending, false);
+	}
+
+	/**
+	 * @param delegate The backing cache
+	 * @param objectMapper Used to convert queued values when they are read as a different type than they were written as
+	 * @param maxPending The maximum number of writes which may be queued or being written before writers block
+	 * @param shutdownHook If true, queued writes are flushed when the JVM shuts down, should the cache not have been closed by then
+	 */
+	public WriteBehindLegiscanCache(LegiscanCache delegate, ObjectMapper objectMapper, int maxPending, boolean shutdownHook) {
+		this(delegate, objectMapper, maxPending, shutdownHook, null);
+	}
+
+	/**
+	 * @param delegate The backing cache
+	 * @param objectMapper Used to convert queued values when they are read as a different type than they were written as
+	 * @param maxPending The maximum number of writes which may be queued or being written before writers block
+	 * @param shutdownHook If true, queued writes are flushed when the JVM shuts down, should the cache not have been closed by then
+	 * @param ttlPolicy The backing cache's TTL policy, used to report the TTL of queued puts which are left to it. May be null.
+	 */
+	public WriteBehindLegiscanCache(LegiscanCache delegate, ObjectMapper objectMapper, int maxPending, boolean shutdownHook, CacheTtlPolicy ttlPolicy) {
+		if (maxPending < 1) throw new IllegalArgumentException("Max pending writes must be at least 1");
+
+		this.delegate = delegate;
+		this.objectMapper = objectMapper;
+		this.maxPending = maxPending;
+		this.ttlPolicy = ttlPolicy;
+		this.writer = Thread.ofPlatform().name("legiscan-cache-writer").daemon(true).unstarted(this::runWriter);
+		this.shutdownHook = shutdownHook ? Thread.ofPlatform().name("legiscan-cache-flush").unstarted(this::flushOnShutdown) : null;
+	}
+
+	@Override
+	public Optional<CachedEntry<Object>> peek(String key) {
+		return peek(key, new TypeReference<Object>() {});
+	}
+
+	@Override
+	public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+		var queued = queued(key);
+		if (queued == null) return delegate.peek(key, typeRef);
+
+		return Optional.ofNullable(queued.toEntry(typeRef));
+	}
+
+	@Override
+	public Optional<CachedEntryMetadata> peekMetadata(String key) {
+		var queued = queued(key);
+		if (queued == null) return delegate.peekMetadata(key);
+		if (queued.isRemove()) return Optional.empty();
+
+		return Optional.of(new CachedEntryMetadata(queued.timestamp, queued.ttlSecs));
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		var queued = queued(key);
+		if (queued == null) return delegate.getOrExpire(key, typeRef);
+		if (queued.isRemove()) return Optional.empty();
+
+		var entry = queued.toEntry(typeRef);
+
+		if (entry.isExpired()) {
+			remove(key);
+			return Optional.empty();
+		}
+
+		return Optional.of(entry.getValue());
+	}
+
+	@Override
+	public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+		var entries = new HashMap<String, CachedEntry<T>>();
+		var misses = new ArrayList<String>();
+
+		for (String key : keys) {
+			var queued = queued(key);
+
+			if (queued == null) {
+				misses.add(key);
+			} else if (!queued.isRemove()) {
+				entries.put(key, queued.toEntry(typeRef));
+			}
+		}
+
+		if (!misses.isEmpty()) {
+			entries.putAll(delegate.getAll(misses, typeRef));
+		}
+
+		return entries;
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		enqueue(key, new PendingWrite(value, Instant.now().getEpochSecond(), defaultTtlSecs(key, value), true, false));
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		enqueue(key, new PendingWrite(value, Instant.now().getEpochSecond(), ttlSecs, false, false));
+	}
+
+	@Override
+	public void putAll(Map<String, ?> values) {
+		long timestamp = Instant.now().getEpochSecond();
+		values.forEach((key, value) -> enqueue(key, new PendingWrite(value, timestamp, defaultTtlSecs(key, value), true, false)));
+	}
+
+	@Override
+	public void putEntry(String key, CachedEntry<?> entry) {
+		enqueue(key, new PendingWrite(entry.getValue(), entry.getTimestamp(), entry.getTtlSecs(), false, true));
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		var queued = queued(key);
+		if (queued == null) return delegate.presentAndValid(key);
+
+		return !queued.isRemove() && !queued.isExpired();
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		enqueue(cacheKey, remove);
+	}
+
+	@Override
+	public List<String> keys(String prefix) {
+		Map<String, PendingWrite> queued;
+
+		synchronized (this) {
+			queued = new HashMap<String, PendingWrite>(writing);
+			queued.putAll(pending);
+		}
+
+		var keys = new TreeSet<String>(delegate.keys(prefix));
+
+		queued.forEach((key, write) -> {
+			if (!key.startsWith(prefix)) return;
+
+			if (write.isRemove()) {
+				keys.remove(key);
+			} else {
+				keys.add(key);
+			}
+		});
+
+		return new ArrayList<String>(keys);
+	}
+
+	/**
+	 * Flushes the writes queued so far, then visits the backing cache's entries. Writes queued after the flush may or may not be visited.
+	 */
+	@Override
+	public void forEachEntry(String prefix, Predicate<CachedEntryMetadata> filter, EntryVisitor visitor) throws IOException {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing " + this, e);
+		}
+
+		delegate.forEachEntry(prefix, filter, visitor);
+	}
+
+	/**
+	 * Blocks until every write queued before this call has been applied to the backing cache. Writes queued after it are not waited for, so a flush
+	 * returns even while writes keep arriving.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (this) {
+			// Queued writes go out in the batch after the one being written
+			long batch = pending.isEmpty() ? batchesTaken : batchesTaken + 1;
+
+			while (batchesWritten < batch) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of writes queued or being written
+	 */
+	public synchronized int pendingSize() {
+		return pending.size() + writing.size();
+	}
+
+	/**
+	 * Flushes every queued write, stops the background writer and closes the backing cache. Writes made after closing are logged and dropped, since
+	 * the backing cache is closed too.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) return;
+
+			closed = true;
+			notifyAll();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing " + this, e);
+		}
+
+		if (shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// Already shutting down
+			}
+		}
+
+		delegate.close();
+	}
+
+	@Override
+	public String toString() {
+		return "Write Behind Cache (" + pendingSize() + " pending) -> " + delegate.toString();
+	}
+
+	/**
+	 * @return The TTL which the backing cache will give a put left to its default, resolved when the put is queued
+	 */
+	private long defaultTtlSecs(String key, Object value) {
+		return ttlPolicy != null ? ttlPolicy.ttlSecs(key, value) : 0;
+	}
+
+	private synchronized PendingWrite queued(String key) {
+		var write = pending.get(key);
+		return write != null ? write : writing.get(key);
+	}
+
+	private void enqueue(String key, PendingWrite write) {
+		synchronized (this) {
+			if (!closed) {
+				try {
+					// A write to a key which is already queued replaces it, and so never needs to wait for space
+					while (!closed && !pending.containsKey(key) && pending.size() + writing.size() >= maxPending) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					// Queued anyway, over the bound, so that it is never applied out of order with a write already queued for the key
+					Thread.currentThread().interrupt();
+				}
+
+				if (!closed) {
+					start();
+					pending.put(key, write);
+					notifyAll();
+					return;
+				}
+			}
+		}
+
+		LOGGER.warning("Dropped write to closed cache for key: " + key);
+	}
+
+	/**
+	 * Starts the background writer, and registers the shutdown hook, on the first write. Must be called while holding this cache's monitor.
+	 */
+	private void start() {
+		if (started) return;
+
+		started = true;
+		writer.start();
+		if (shutdownHook != null) Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	private void runWriter() {
+		while (true) {
+			Map<String, PendingWrite> batch;
+
+			synchronized (this) {
+				try {
+					while (pending.isEmpty() && !closed) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				if (pending.isEmpty()) return;
+
+				batch = pending;
+				writing = batch;
+				pending = new LinkedHashMap<String, PendingWrite>();
+				batchesTaken++;
+			}
+
+			apply(batch);
+
+			synchronized (this) {
+				writing = Map.of();
+				batchesWritten++;
+				notifyAll();
+			}
+		}
+	}
+
+	private void apply(Map<String, PendingWrite> batch) {
+		var defaultTtlPuts = new LinkedHashMap<String, Object>();
+
+		batch.forEach((key, write) -> {
+			try {
+				if (write.isRemove()) {
+					delegate.remove(key);
+				} else if (write.entry) {
+					delegate.putEntry(key, new CachedEntry<Object>(write.value, write.timestamp, write.ttlSecs));
+				} else if (write.defaultTtl) {
+					defaultTtlPuts.put(key, write.value);
+				} else {
+					delegate.put(key, write.value, write.ttlSecs);
+				}
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to write cache for key: " + key, e);
+			}
+		});
+
+		if (!defaultTtlPuts.isEmpty()) {
+			try {
+				delegate.putAll(defaultTtlPuts);
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to write cache batch of " + defaultTtlPuts.size() + " entries", e);
+			}
+		}
+	}
+
+	private void flushOnShutdown() {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			LOGGER.warning("Interrupted while flushing " + this + " on shutdown");
+		}
+	}
+
+	private class PendingWrite {
+		final Object value;
+		final long timestamp;
+		final long ttlSecs;
+
+		/**
+		 * True if the TTL is left to the backing cache. ttlSecs is then only what this cache expects the backing cache to choose.
+		 */
+		final boolean defaultTtl;
+
+		/**
+		 * True if the write keeps its timestamp, as with {@link LegiscanCache#putEntry(String, CachedEntry)}, rather than being stamped when written.
+		 */
+		final boolean entry;
+
+		PendingWrite(Object value, long timestamp, long ttlSecs, boolean defaultTtl, boolean entry) {
+			this.value = value;
+			this.timestamp = timestamp;
+			this.ttlSecs = ttlSecs;
+			this.defaultTtl = defaultTtl;
+			this.entry = entry;
+		}
+
+		boolean isRemove() {
+			return this == remove;
+		}
+
+		boolean isExpired() {
+			return ttlSecs > 0 && Instant.now().getEpochSecond() > timestamp + ttlSecs;
+		}
+
+		/**
+		 * @return The queued value as an entry of the requested type, or null if this is a remove. Values are converted only if they are not already
+		 *  of the requested type.
+		 */
+		@SuppressWarnings("unchecked")
+		<T> CachedEntry<T> toEntry(TypeReference<T> typeRef) {
+			if (isRemove()) return null;
+
+			Type type = typeRef.getType();
+			T converted = type instanceof Class<?> c && c.isInstance(value) ? (T) value : objectMapper.convertValue(value, typeRef);
+
+			return new CachedEntry<T>(converted, timestamp, ttlSecs);
+		}
+	}
+}
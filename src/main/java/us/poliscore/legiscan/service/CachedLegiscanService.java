@@ -1,13 +1,29 @@
 package us.poliscore.legiscan.service;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -20,9 +36,19 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import lombok.Getter;
 import lombok.SneakyThrows;
+import us.poliscore.legiscan.cache.CacheFormat;
+import us.poliscore.legiscan.cache.CacheKeyEncoder;
+import us.poliscore.legiscan.cache.CacheTtlPolicy;
 import us.poliscore.legiscan.cache.CachedLegiscanDataset;
+import us.poliscore.legiscan.cache.ChangeHashIndex;
 import us.poliscore.legiscan.cache.FileSystemLegiscanCache;
+import us.poliscore.legiscan.cache.IndexedLegiscanCache;
 import us.poliscore.legiscan.cache.LegiscanCache;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+import us.poliscore.legiscan.cache.TieredLegiscanCache;
+import us.poliscore.legiscan.cache.WriteBehindLegiscanCache;
+import us.poliscore.legiscan.exception.LegiscanException;
 import us.poliscore.legiscan.view.LegiscanAmendmentView;
 import us.poliscore.legiscan.view.LegiscanBillTextView;
 import us.poliscore.legiscan.view.LegiscanBillView;
@@ -43,16 +69,85 @@ import us.poliscore.legiscan.view.LegiscanSupplementView;
  * - Bulk populating of datasets
  * - Updating a previously bulk populated dataset and listening to data update events
  */
-public class CachedLegiscanService extends LegiscanService {
+public class CachedLegiscanService extends LegiscanService implements Closeable {
 
     private static final Logger LOGGER = Logger.getLogger(CachedLegiscanService.class.getName());
 
     @Getter
     protected final LegiscanCache cache;
+    
+    /**
+     * Directory where dataset ZIP archives are stored. Archives are named by session and dataset_hash, so an archive is only ever downloaded once.
+     */
+    @Getter
+    protected File datasetDirectory;
+    
+    /**
+     * Index of bill_id to change_hash for every bill in the cache. Kept in sync by an IndexedLegiscanCache in front of the durable cache, so a bill
+     * is indexed only once its write has landed.
+     */
+    @Getter
+    protected ChangeHashIndex changeHashIndex = new ChangeHashIndex();
+    
+    /**
+     * The maximum number of bills which will be fetched from Legiscan concurrently while updating a dataset. A value of 1 fetches bills serially.
+     */
+    @Getter
+    protected int updateParallelism = 1;
+    
+    /**
+     * The number of worker threads used to parse and cache dataset entries during a bulk load. A value of 1 loads entries serially.
+     */
+    @Getter
+    protected int bulkLoadParallelism = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Requests to Legiscan which are currently in flight, keyed by cache key. Concurrent callers asking for the same key share a single request and a single
+     * cache write.
+     */
+    protected final Map<String, CompletableFuture<LegiscanResponse>> inFlight = new ConcurrentHashMap<String, CompletableFuture<LegiscanResponse>>();
+    
+    /**
+     * If set, expired entries which expired no more than this long ago are returned at once and refreshed in the background, rather than blocking
+     * the caller on a request to Legiscan. Null (the default) disables stale-while-revalidate.
+     */
+    @Getter
+    protected Duration maxStaleness;
+    
+    /**
+     * If true, expired bills are checked against a valid cached getMasterListRaw for their session, and re-stamped rather than fetched again if
+     * their change_hash has not moved. Disabled by default.
+     */
+    @Getter
+    protected boolean changeHashRevalidation = false;
+    
+    /**
+     * The bill_id to change_hash map of each session's cached master list, keyed by session id. A map is rebuilt only once the master list has been
+     * cached again, which is recognized by its timestamp.
+     */
+    protected final Map<Integer, MasterListHashes> masterListHashes = new ConcurrentHashMap<Integer, MasterListHashes>();
 
     protected CachedLegiscanService(String apiKey, ObjectMapper objectMapper, LegiscanCache cache) {
         super(apiKey, objectMapper);
-        this.cache = cache;
+        this.cache = new IndexedLegiscanCache(cache, changeHashIndex, objectMapper, null);
+    }
+    
+    /**
+     * Creates a service configured by the builder. Subclasses may use this to customize a service while still configuring it through a builder.
+     */
+    protected CachedLegiscanService(Builder builder) {
+        this(builder, builder.resolve());
+    }
+    
+    private CachedLegiscanService(Builder builder, Builder.Resolved resolved) {
+        super(builder.apiKey, resolved.objectMapper(), builder.rateLimiter, builder.retryPolicy, builder.executor);
+        this.cache = resolved.cache();
+        this.datasetDirectory = resolved.datasetDirectory();
+        this.updateParallelism = builder.updateParallelism;
+        this.bulkLoadParallelism = builder.bulkLoadParallelism;
+        this.maxStaleness = builder.maxStaleness;
+        this.changeHashRevalidation = builder.changeHashRevalidation;
+        this.changeHashIndex = resolved.changeHashIndex();
     }
 
     public static Builder builder(String apiKey) {
@@ -64,7 +159,26 @@ public class CachedLegiscanService extends LegiscanService {
     	protected ObjectMapper objectMapper;
     	protected LegiscanCache cache;
     	protected File cacheDirectory;
+    	protected File datasetDirectory;
+    	protected File changeHashIndexFile;
+    	protected long memoryCacheSize = 0;
+    	protected boolean memoryCacheSizeInBytes = false;
     	protected int ttl = 14400; // Default ttl is 4 hours
+    	protected CacheTtlPolicy ttlPolicy;
+    	protected CacheFormat cacheFormat = CacheFormat.JSON;
+    	protected boolean cacheProcessLocking = false;
+    	protected Function<String, String> cachePartitioner;
+    	protected Duration cacheSweepInterval;
+    	protected long cacheMaxBytes = 0;
+    	protected Duration maxStaleness;
+    	protected boolean changeHashRevalidation = false;
+    	protected int writeBehindMaxPending = 0;
+    	protected boolean writeBehindShutdownHook = false;
+    	protected ExecutorService executor;
+    	protected int updateParallelism = 1;
+    	protected int bulkLoadParallelism = Runtime.getRuntime().availableProcessors();
+    	protected RateLimiter rateLimiter = RateLimiter.unlimited();
+    	protected RetryPolicy retryPolicy = RetryPolicy.defaults();
 
         public Builder(String apiKey) {
             this.apiKey = apiKey;
@@ -85,6 +199,25 @@ public class CachedLegiscanService extends LegiscanService {
             return this;
         }
         
+        /**
+         * @param dir The directory to store downloaded dataset archives in. Defaults to '.datasets' within the cache directory.
+         * @return
+         */
+        public Builder withDatasetDirectory(File dir) {
+        	this.datasetDirectory = dir;
+        	return this;
+        }
+        
+        /**
+         * @param file The file to persist the bill change_hash index to. Defaults to '.index/changehash.log' within the cache directory, unless a custom
+         * cache has been provided, in which case the index is held in memory only.
+         * @return
+         */
+        public Builder withChangeHashIndexFile(File file) {
+        	this.changeHashIndexFile = file;
+        	return this;
+        }
+        
         /**
          * @param ttl Sets the time to live (in seconds) for non-static urls. Data will not be fetched more than the specified ttl. Default is 4 hours. Static objects will never be re-fetched.
          * @return
@@ -94,41 +227,504 @@ public class CachedLegiscanService extends LegiscanService {
         	return this;
         }
 
+        /**
+         * @param ttlPolicy Decides the TTL of each entry written to the default file system cache, for example by its operation or by whether the
+         * bill it holds is completed. See CacheTtlPolicy.statusAware. Takes precedence over withCacheTttl. Default is CacheTtlPolicy.fixed, using
+         * the configured TTL.
+         * @return
+         */
+        public Builder withCacheTtlPolicy(CacheTtlPolicy ttlPolicy) {
+        	this.ttlPolicy = ttlPolicy;
+        	return this;
+        }
+
+        /**
+         * @param cacheFormat The format entries are written to the default file system cache in. Default is JSON. Entries already written in another
+         * format remain readable. See FileSystemLegiscanCache.migrate to convert an existing cache in place.
+         * @return
+         */
+        public Builder withCacheFormat(CacheFormat cacheFormat) {
+        	this.cacheFormat = cacheFormat;
+        	return this;
+        }
+
+        /**
+         * @param processLocking If true, the default file system cache takes file locks when writing, so that several processes may safely share
+         * one cache directory. Default is false, which is safe for any number of threads within one process.
+         * @return
+         */
+        public Builder withCacheProcessLocking(boolean processLocking) {
+        	this.cacheProcessLocking = processLocking;
+        	return this;
+        }
+
+        /**
+         * @param partitioner Returns the partition the default file system cache stores a key under, such as the state the key belongs to, or null
+         * for none. Each partition is a separate directory within each operation's directory, so it can be backed up or deleted on its own. Must
+         * always return the same partition for the same key. Default is no partitioning.
+         * @return
+         */
+        public Builder withCachePartitioner(Function<String, String> partitioner) {
+        	this.cachePartitioner = partitioner;
+        	return this;
+        }
+
+        /**
+         * Periodically sweeps the default file system cache in the background, deleting expired entries and, if maxBytes is greater than 0, evicting
+         * the least recently used entries once the cache grows beyond it. Static entries are evicted last. Disabled by default.
+         * 
+         * @param interval The delay between sweeps
+         * @param maxBytes The disk budget for the cache, or 0 to only delete expired entries
+         * @return
+         */
+        public Builder withCacheSweeper(Duration interval, long maxBytes) {
+        	if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("Sweep interval must be positive");
+        	
+        	this.cacheSweepInterval = interval;
+        	this.cacheMaxBytes = maxBytes;
+        	return this;
+        }
+
+        /**
+         * Enables stale-while-revalidate. Once an entry's TTL has passed, callers are given the stale entry at once while it is refreshed from
+         * Legiscan in the background, with at most one refresh in flight per key. Callers only block on Legiscan again once the entry is more than
+         * maxStaleness past its expiry. Disabled by default.
+         * 
+         * @param maxStaleness How long after expiring an entry may still be returned
+         * @return
+         */
+        public Builder withStaleWhileRevalidate(Duration maxStaleness) {
+        	if (maxStaleness.isNegative()) throw new IllegalArgumentException("Max staleness must not be negative");
+        	
+        	this.maxStaleness = maxStaleness;
+        	return this;
+        }
+
+        /**
+         * Enables change_hash revalidation of bills. Once a bill's TTL has passed, its change_hash is compared to that of the bill in its session's
+         * master list (getMasterListRaw), if the master list is cached, has not expired, and was cached after the bill. A bill whose change_hash
+         * has not moved is re-stamped in the cache and returned, without a request to Legiscan. Otherwise the bill is fetched as usual. Keep the
+         * master lists fresh, for example with a short TTL for 'getmasterlistraw' in the cache's TTL policy. Disabled by default.
+         * 
+         * @param changeHashRevalidation
+         * @return
+         */
+        public Builder withChangeHashRevalidation(boolean changeHashRevalidation) {
+        	this.changeHashRevalidation = changeHashRevalidation;
+        	return this;
+        }
+
+        /**
+         * Writes to the cache asynchronously, so that requests and dataset loads never wait on serialization or disk I/O. Writes are queued in memory,
+         * where they are readable at once, and applied to the cache in coalesced batches by a background writer. Closing the service flushes every
+         * queued write. Disabled by default.
+         * 
+         * @param maxPending The maximum number of queued writes. Writers block once the queue is full, until the background writer catches up.
+         * @param flushOnShutdown If true, queued writes are also flushed when the JVM shuts down without the service having been closed
+         * @return
+         */
+        public Builder withCacheWriteBehind(int maxPending, boolean flushOnShutdown) {
+        	if (maxPending < 1) throw new IllegalArgumentException("Max pending writes must be at least 1");
+        	
+        	this.writeBehindMaxPending = maxPending;
+        	this.writeBehindShutdownHook = flushOnShutdown;
+        	return this;
+        }
+
+        /**
+         * @param executor The executor to use for concurrent work, such as parallel bill refreshes. It is not shut down when the service is closed.
+         *  Defaults to a virtual thread per task executor, owned and shut down by the service.
+         * @return
+         */
+        public Builder withExecutor(ExecutorService executor) {
+        	this.executor = executor;
+        	return this;
+        }
+        
+        /**
+         * @param updateParallelism The maximum number of bills to fetch from Legiscan concurrently while updating a dataset. Default is 1 (serial).
+         * @return
+         */
+        public Builder withUpdateParallelism(int updateParallelism) {
+        	if (updateParallelism < 1) throw new IllegalArgumentException("Update parallelism must be at least 1");
+        	
+        	this.updateParallelism = updateParallelism;
+        	return this;
+        }
+
+        /**
+         * @param bulkLoadParallelism The number of worker threads used to parse and cache dataset entries during a bulk load. Default is the number of available processors.
+         * @return
+         */
+        public Builder withBulkLoadParallelism(int bulkLoadParallelism) {
+        	if (bulkLoadParallelism < 1) throw new IllegalArgumentException("Bulk load parallelism must be at least 1");
+        	
+        	this.bulkLoadParallelism = bulkLoadParallelism;
+        	return this;
+        }
+        
+        /**
+         * @param rateLimiter Paces all requests made to Legiscan by the built service, across all threads. Default is unlimited.
+         * @return
+         */
+        public Builder withRateLimiter(RateLimiter rateLimiter) {
+        	this.rateLimiter = rateLimiter;
+        	return this;
+        }
+        
+        /**
+         * Convenience for withRateLimiter, using a token bucket.
+         * 
+         * @param requestsPerSecond The sustained number of requests per second
+         * @param burst The maximum number of requests which may be made back to back
+         * @return
+         */
+        public Builder withRateLimit(double requestsPerSecond, int burst) {
+        	return withRateLimiter(new TokenBucketRateLimiter(requestsPerSecond, burst));
+        }
+        
+        /**
+         * @param retryPolicy Decides which failed requests are retried and how long to back off. Default is RetryPolicy.defaults().
+         * @return
+         */
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+        	this.retryPolicy = retryPolicy;
+        	return this;
+        }
+
+        /**
+         * Places a bounded in-memory tier in front of the cache, holding already deserialized responses for hot keys. Disabled by default.
+         * 
+         * @param maxEntries The maximum number of responses to hold in memory
+         * @return
+         */
+        public Builder withMemoryCache(int maxEntries) {
+        	this.memoryCacheSize = maxEntries;
+        	this.memoryCacheSizeInBytes = false;
+        	return this;
+        }
+        
+        /**
+         * Places a bounded in-memory tier in front of the cache, holding already deserialized responses for hot keys. Disabled by default.
+         * 
+         * @param maxBytes The maximum estimated size, in bytes, of the responses held in memory
+         * @return
+         */
+        public Builder withMemoryCacheBytes(long maxBytes) {
+        	this.memoryCacheSize = maxBytes;
+        	this.memoryCacheSizeInBytes = true;
+        	return this;
+        }
+
         public CachedLegiscanService build() {
-            if (this.objectMapper == null) {
-            	this.objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+            return new CachedLegiscanService(this);
+        }
+        
+        /**
+         * Fills in the defaults for everything which was not configured, and creates the cache stack, once for each service built. The builder
+         * itself is left as configured, so that it may build any number of services.
+         */
+        protected Resolved resolve() {
+            var objectMapper = this.objectMapper;
+            
+            if (objectMapper == null) {
+            	objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
             	
             	// The dataset fetching methods have some large zips which are serialized into json. Without this the deserialization will fail
             	objectMapper.getFactory().setStreamReadConstraints(StreamReadConstraints.builder().maxStringLength(100_000_000).build());
             }
 
-            if (this.cache == null) {
-                File dir = cacheDirectory != null
-                        ? cacheDirectory
-                        : new File(System.getProperty("user.home") + "/appdata/poliscore/legiscan");
-                
+            File dir = cacheDirectory != null
+                    ? cacheDirectory
+                    : new File(System.getProperty("user.home") + "/appdata/poliscore/legiscan");
+            
+            var cache = this.cache;
+            var changeHashIndexFile = this.changeHashIndexFile;
+            
+            // Only known for the default file system cache
+            CacheTtlPolicy policy = null;
+            
+            if (cache == null) {
                 // default ttl is 4 hours
-                this.cache = new FileSystemLegiscanCache(dir, this.objectMapper, ttl);
+                policy = ttlPolicy != null ? ttlPolicy : CacheTtlPolicy.fixed(ttl);
+                var fileCache = new FileSystemLegiscanCache(dir, objectMapper, policy, cacheFormat, cacheProcessLocking, cachePartitioner);
+                if (cacheSweepInterval != null) fileCache.startSweeper(cacheSweepInterval, cacheMaxBytes);
+                cache = fileCache;
+                
+                if (changeHashIndexFile == null) {
+                	changeHashIndexFile = new File(dir, ".index/changehash.log");
+                }
             }
-
-            var client = new CachedLegiscanService(apiKey, objectMapper, cache);
             
-            return client;
+            var changeHashIndex = changeHashIndexFile != null ? new ChangeHashIndex(changeHashIndexFile, cacheProcessLocking) : new ChangeHashIndex();
+            
+            // Beneath write-behind, so that bills are indexed once they are actually written. Without a known policy, their metadata is read back.
+            cache = new IndexedLegiscanCache(cache, changeHashIndex, objectMapper, policy);
+            
+            if (this.writeBehindMaxPending > 0) {
+            	cache = new WriteBehindLegiscanCache(cache, objectMapper, writeBehindMaxPending, writeBehindShutdownHook, policy);
+            }
+            
+            if (this.memoryCacheSize > 0) {
+            	cache = memoryCacheSizeInBytes
+            			? new TieredLegiscanCache(cache, memoryCacheSize, TieredLegiscanCache.serializedSizeWeigher(objectMapper))
+            			: new TieredLegiscanCache(cache, (int) memoryCacheSize);
+            }
+            
+            var datasetDirectory = this.datasetDirectory != null ? this.datasetDirectory : new File(dir, ".datasets");
+            
+            return new Resolved(objectMapper, cache, changeHashIndex, datasetDirectory);
         }
+        
+        /**
+         * The object mapper, cache stack, change hash index and dataset directory of one service, as resolved from the builder.
+         */
+        protected record Resolved(ObjectMapper objectMapper, LegiscanCache cache, ChangeHashIndex changeHashIndex, File datasetDirectory) {}
     }
     
     protected LegiscanResponse getOrRequest(String cacheKey, String url) {
-    	var cached = cache.getOrExpire(cacheKey).orElse(null);
+    	var cached = getCached(cacheKey, url).orElse(null);
     	
     	if (cached != null) {
     		LOGGER.fine("Pulling object [" + cacheKey + "] from cache.");
     		return cached;
     	}
     	
-    	LOGGER.info("Fetching object [" + cacheKey + "] from Legiscan.");
-        LegiscanResponse value = makeRequest(url);
-        cache.put(cacheKey, value);
-        return value;
+    	var request = new CompletableFuture<LegiscanResponse>();
+    	var inFlightRequest = inFlight.putIfAbsent(cacheKey, request);
+    	
+    	if (inFlightRequest != null) {
+    		LOGGER.fine("Waiting on in-flight request for object [" + cacheKey + "].");
+    		return join(inFlightRequest);
+    	}
+    	
+    	try {
+    		// Another caller may have completed a request for this key between our cache miss and registering ours
+    		var value = cache.getOrExpire(cacheKey).orElse(null);
+    		
+    		if (value == null) {
+    			LOGGER.info("Fetching object [" + cacheKey + "] from Legiscan.");
+    			value = makeRequest(url);
+    			cache.put(cacheKey, value);
+    		}
+    		
+    		request.complete(value);
+    		return value;
+    	} catch (RuntimeException e) {
+    		request.completeExceptionally(e);
+    		throw e;
+    	} finally {
+    		inFlight.remove(cacheKey, request);
+    	}
+    }
+    
+    /**
+     * Asynchronous variant of getOrRequest. The cache lookup and write are performed on the service's executor, so the calling thread is never
+     * blocked on cache I/O.
+     */
+    protected CompletableFuture<LegiscanResponse> getOrRequestAsync(String cacheKey, String url) {
+    	return CompletableFuture.supplyAsync(() -> getCached(cacheKey, url), executor).thenCompose(cached -> {
+    		if (cached.isPresent()) {
+    			LOGGER.fine("Pulling object [" + cacheKey + "] from cache.");
+    			return CompletableFuture.completedFuture(cached.get());
+    		}
+    		
+    		var request = new CompletableFuture<LegiscanResponse>();
+    		var inFlightRequest = inFlight.putIfAbsent(cacheKey, request);
+    		
+    		if (inFlightRequest != null) {
+    			LOGGER.fine("Waiting on in-flight request for object [" + cacheKey + "].");
+    			return inFlightRequest;
+    		}
+    		
+    		try {
+    			// Another caller may have completed a request for this key between our cache miss and registering ours
+    			var value = cache.getOrExpire(cacheKey).orElse(null);
+    			
+    			if (value != null) {
+    				inFlight.remove(cacheKey, request);
+    				request.complete(value);
+    				return request;
+    			}
+    		} catch (RuntimeException e) {
+    			inFlight.remove(cacheKey, request);
+    			request.completeExceptionally(e);
+    			return request;
+    		}
+    		
+    		LOGGER.info("Fetching object [" + cacheKey + "] from Legiscan.");
+    		return requestAsync(cacheKey, url, request);
+    	});
+    }
+    
+    /**
+     * Looks up a cached response. With change_hash revalidation, an expired bill which is unchanged in its session's master list is re-stamped and
+     * returned. In stale-while-revalidate mode, a response which has expired but is within the maximum staleness is also returned, and a background
+     * refresh of it is started.
+     */
+    protected Optional<LegiscanResponse> getCached(String cacheKey, String url) {
+    	if (maxStaleness == null && !changeHashRevalidation) return cache.getOrExpire(cacheKey);
+    	
+    	// Decided from the metadata, so that an expired entry is only read if it may yet be returned
+    	var metadata = cache.peekMetadata(cacheKey).orElse(null);
+    	if (metadata == null) return Optional.empty();
+    	if (!metadata.isExpired()) return cache.getOrExpire(cacheKey);
+    	
+    	boolean revalidatable = changeHashRevalidation && cacheKey.startsWith("getbill/");
+    	
+    	// Entries too stale to serve are replaced by the request the caller makes next, which callers block on
+    	long staleSecs = Instant.now().getEpochSecond() - (metadata.getTimestamp() + metadata.getTtlSecs());
+    	boolean servable = maxStaleness != null && staleSecs <= maxStaleness.toSeconds();
+    	
+    	if (!revalidatable && !servable) return Optional.empty();
+    	
+    	var entry = cache.peek(cacheKey, new TypeReference<LegiscanResponse>() {}).orElse(null);
+    	if (entry == null) return Optional.empty();
+    	
+    	if (revalidatable && isBillUnchanged(cacheKey, entry)) {
+    		LOGGER.fine("Bill [" + cacheKey + "] is unchanged in its session's master list. Re-stamping it rather than fetching it.");
+    		cache.put(cacheKey, entry.getValue());
+    		return Optional.of(entry.getValue());
+    	}
+    	
+    	if (!servable) return Optional.empty();
+    	
+    	revalidate(cacheKey, url);
+    	return Optional.of(entry.getValue());
+    }
+    
+    /**
+     * Refreshes a stale entry in the background, unless a request for it is already in flight.
+     */
+    protected void revalidate(String cacheKey, String url) {
+    	var request = new CompletableFuture<LegiscanResponse>();
+    	
+    	if (inFlight.putIfAbsent(cacheKey, request) != null) {
+    		LOGGER.fine("Serving stale object [" + cacheKey + "] while it is refreshed.");
+    		return;
+    	}
+    	
+    	LOGGER.info("Serving stale object [" + cacheKey + "] and refreshing it from Legiscan in the background.");
+    	requestAsync(cacheKey, url, request).exceptionally(ex -> {
+    		LOGGER.log(Level.WARNING, "Failed to refresh stale object [" + cacheKey + "]. It will be retried on its next use.", ex);
+    		return null;
+    	});
+    }
+    
+    /**
+     * @return true if the entry is a bill whose change_hash matches the one in its session's master list, which must be cached, unexpired, and newer
+     *  than the entry
+     */
+    protected boolean isBillUnchanged(String cacheKey, CachedEntry<LegiscanResponse> entry) {
+    	var bill = entry.getValue().getBill();
+    	if (!cacheKey.startsWith("getbill/") || bill == null || bill.getBillId() == null || bill.getChangeHash() == null) return false;
+    	
+    	Integer sessionId = bill.getSessionId() != null ? bill.getSessionId() : bill.getSession() != null ? bill.getSession().getSessionId() : null;
+    	if (sessionId == null) return false;
+    	
+    	var hashes = masterListHashes(sessionId);
+    	if (hashes == null || hashes.timestamp() <= entry.getTimestamp()) return false;
+    	
+    	return bill.getChangeHash().equals(hashes.hashes().get(bill.getBillId()));
+    }
+    
+    /**
+     * @return The change_hash of every bill in the session's cached master list, or null if the master list is not cached or has expired
+     */
+    protected MasterListHashes masterListHashes(int sessionId) {
+    	String cacheKey = LegiscanMasterListView.getRawCacheKey(sessionId);
+    	
+    	var metadata = cache.peekMetadata(cacheKey).orElse(null);
+    	if (metadata == null || metadata.isExpired()) return null;
+    	
+    	var hashes = masterListHashes.get(sessionId);
+    	if (hashes != null && hashes.timestamp() == metadata.getTimestamp()) return hashes;
+    	
+    	var masterlist = cache.peek(cacheKey, new TypeReference<LegiscanResponse>() {}).map(CachedEntry::getValue).map(LegiscanResponse::getMasterlist).orElse(null);
+    	if (masterlist == null) return null;
+    	
+    	var billHashes = new HashMap<Integer, String>();
+    	for (var summary : masterlist.getBills().values()) {
+    		if (summary.getChangeHash() != null) billHashes.put(summary.getBillId(), summary.getChangeHash());
+    	}
+    	
+    	hashes = new MasterListHashes(metadata.getTimestamp(), billHashes);
+    	masterListHashes.put(sessionId, hashes);
+    	return hashes;
+    }
+    
+    /**
+     * The bill_id to change_hash map of a session's master list, as of the time the master list was cached.
+     */
+    protected record MasterListHashes(long timestamp, Map<Integer, String> hashes) {}
+    
+    /**
+     * Fetches the url and caches the response, then completes the request, which must already be registered in flight for the cache key.
+     */
+    private CompletableFuture<LegiscanResponse> requestAsync(String cacheKey, String url, CompletableFuture<LegiscanResponse> request) {
+    	CompletableFuture<LegiscanResponse> response;
+    	
+    	try {
+    		response = makeRequestAsync(url);
+    	} catch (RuntimeException e) {
+    		// Failures thrown before the request is under way still have to release the in-flight entry
+    		response = CompletableFuture.failedFuture(e);
+    	}
+    	
+    	response.thenApplyAsync(value -> {
+    		cache.put(cacheKey, value);
+    		return value;
+    	}, executor).whenComplete((value, ex) -> {
+    		inFlight.remove(cacheKey, request);
+    		
+    		if (ex != null) {
+    			request.completeExceptionally(ex);
+    		} else {
+    			request.complete(value);
+    		}
+    	});
+    	
+    	return request;
+    }
+    
+    /**
+     * Records the change_hash of a bill read from the cache, along with the timestamp and TTL of its entry. Bills written through the cache are
+     * indexed by the cache itself.
+     */
+    public void indexBill(CachedEntry<LegiscanResponse> cached) {
+    	var bill = cached.getValue().getBill();
+    	
+    	if (bill != null && bill.getBillId() != null) {
+    		changeHashIndex.put(bill.getBillId(), bill.getChangeHash(), new CachedEntryMetadata(cached.getTimestamp(), cached.getTtlSecs()));
+    	}
+    }
+    
+    /**
+     * Shuts down the service's executor, if it owns one, and then closes the cache and the change hash index. Background refreshes therefore finish
+     * before the cache is closed. Caches which buffer writes or run background work, such as SegmentLegiscanCache, must be closed to guarantee that
+     * every write reaches disk.
+     */
+    @Override
+    public void close() throws IOException {
+    	try {
+    		super.close();
+    	} finally {
+    		try {
+    			cache.close();
+    		} finally {
+    			changeHashIndex.close();
+    		}
+    	}
+    }
+    
+    private static <T> T join(CompletableFuture<T> future) {
+    	try {
+    		return future.join();
+    	} catch (CompletionException e) {
+    		if (e.getCause() instanceof RuntimeException re) throw re;
+    		
+    		throw new LegiscanException(e.getMessage(), e.getCause());
+    	}
     }
 
     protected String cacheKeyFromUrl(String url) {
@@ -379,18 +975,99 @@ public class CachedLegiscanService extends LegiscanService {
         return response.getDataset();
     }
     
+    /**
+     * Fetches the raw dataset archive. The archive is streamed to the dataset directory rather than being stored in the cache; the cache only holds a
+     * small marker entry which gives the archive the usual TTL.
+     */
     @Override
+    @SneakyThrows
     public byte[] getDatasetRaw(int sessionId, String accessKey, String format) {
         String url = buildUrl("getDatasetRaw", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
         String cacheKey = cacheKeyFromUrl(url);
         
-        var typeRef = new TypeReference<byte[]>(){};
+        Path archive = datasetDirectory.toPath().resolve(datasetRawFileName(sessionId, accessKey, format));
         
-        return cache.getOrExpire(cacheKey, typeRef).orElseGet(() -> {
-            byte[] value = makeRequestRaw(url);
-            cache.put(cacheKey, value);
-            return value;
-        });
+        if (!Files.exists(archive) || !cache.presentAndValid(cacheKey)) {
+        	LOGGER.info("Fetching object [" + cacheKey + "] from Legiscan.");
+        	downloadArchive(sessionId, accessKey, format, archive);
+        	cache.put(cacheKey, archive.getFileName().toString());
+        }
+        
+        return Files.readAllBytes(archive);
+    }
+    
+    /**
+     * @return The file name of the archive fetched by getDatasetRaw. The access key is a credential, so the name holds only a digest of it.
+     */
+    protected static String datasetRawFileName(int sessionId, String accessKey, String format) {
+    	return "raw-" + sessionId + "-" + accessKeyDigest(accessKey) + "." + CacheKeyEncoder.encode(String.valueOf(format)) + ".zip";
+    }
+    
+    /**
+     * @return A short digest of a dataset access key, which identifies the key in file names without revealing it
+     */
+    @SneakyThrows
+    protected static String accessKeyDigest(String accessKey) {
+    	byte[] digest = MessageDigest.getInstance("SHA-256").digest(String.valueOf(accessKey).getBytes(StandardCharsets.UTF_8));
+    	
+    	return HexFormat.of().formatHex(digest, 0, 8);
+    }
+    
+    /**
+     * Fetches the ZIP archive for the given dataset, streaming it to a file in the dataset directory. Archives are content addressed by the dataset's
+     * dataset_hash, so if the archive for this version of the dataset has already been downloaded it is returned without contacting Legiscan. Archives
+     * for older versions of the same session are removed once a newer one has been downloaded. A dataset without a dataset_hash is named by a digest
+     * of its access key instead, since the access key is a credential.
+     * 
+     * @param dataset The dataset, as returned by getDatasetList
+     * @param format Data file format for ZIP file contents where json=JSON, csv=CSV
+     * @return The path of the downloaded archive
+     */
+    @SneakyThrows
+    public Path getDatasetArchive(LegiscanDatasetView dataset, String format) {
+    	String version = dataset.getDatasetHash() != null
+    			? CacheKeyEncoder.encode(dataset.getDatasetHash())
+    			: "key-" + accessKeyDigest(dataset.getAccessKey());
+    	String prefix = dataset.getSessionId() + "-";
+    	String suffix = "." + CacheKeyEncoder.encode(String.valueOf(format)) + ".zip";
+    	Path archive = datasetDirectory.toPath().resolve(prefix + version + suffix);
+    	
+    	if (Files.exists(archive)) {
+    		LOGGER.fine("Pulling dataset archive [" + archive + "] from cache.");
+    		return archive;
+    	}
+    	
+    	LOGGER.info("Fetching dataset archive [" + dataset.getSessionName() + "] from Legiscan.");
+    	downloadArchive(dataset.getSessionId(), dataset.getAccessKey(), format, archive);
+    	
+    	try (var siblings = Files.newDirectoryStream(datasetDirectory.toPath(), prefix + "*" + suffix)) {
+    		for (Path sibling : siblings) {
+    			if (!sibling.equals(archive)) {
+    				Files.deleteIfExists(sibling);
+    			}
+    		}
+    	}
+    	
+    	return archive;
+    }
+    
+    /**
+     * Downloads a dataset archive to a temporary file beside the target, and then atomically moves it into place. Readers will therefore never observe
+     * a partially written archive.
+     */
+    @SneakyThrows
+    protected Path downloadArchive(int sessionId, String accessKey, String format, Path archive) {
+    	Files.createDirectories(archive.getParent());
+    	Path temp = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".part");
+    	
+    	try {
+    		downloadDatasetRaw(sessionId, accessKey, format, temp);
+    		Files.move(temp, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    	} finally {
+    		Files.deleteIfExists(temp);
+    	}
+    	
+    	return archive;
     }
 
     @Override
@@ -436,5 +1113,71 @@ public class CachedLegiscanService extends LegiscanService {
         LegiscanResponse response = getOrRequest(cacheKey, url);
         return response.getMonitorlist();
     }
+    
+    @Override
+    public CompletableFuture<List<LegiscanSessionView>> getSessionListAsync(String state) {
+        String url = buildUrl("getSessionList", "state", state);
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getSessions);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanMasterListView> getMasterListAsync(int sessionId) {
+        String url = buildUrl("getMasterList", "id", String.valueOf(sessionId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getMasterlist);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanMasterListView> getMasterListRawAsync(int sessionId) {
+        String url = buildUrl("getMasterListRaw", "id", String.valueOf(sessionId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getMasterlist);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanBillView> getBillAsync(int billId) {
+        String url = buildUrl("getBill", "id", String.valueOf(billId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getBill);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanBillTextView> getBillTextAsync(int docId) {
+        String url = buildUrl("getBillText", "id", String.valueOf(docId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getText);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanAmendmentView> getAmendmentAsync(int amendmentId) {
+        String url = buildUrl("getAmendment", "id", String.valueOf(amendmentId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getAmendment);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanSupplementView> getSupplementAsync(int supplementId) {
+        String url = buildUrl("getSupplement", "id", String.valueOf(supplementId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getSupplement);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanRollCallView> getRollCallAsync(int rollCallId) {
+        String url = buildUrl("getRollCall", "id", String.valueOf(rollCallId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getRollcall);
+    }
+    
+    @Override
+    public CompletableFuture<LegiscanPeopleView> getPersonAsync(int peopleId) {
+        String url = buildUrl("getPerson", "id", String.valueOf(peopleId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getPerson);
+    }
+    
+    @Override
+    public CompletableFuture<List<LegiscanPeopleView>> getSessionPeopleAsync(int sessionId) {
+        String url = buildUrl("getSessionPeople", "id", String.valueOf(sessionId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(resp -> resp.getSessionpeople().getPeople());
+    }
+    
+    @Override
+    public CompletableFuture<List<LegiscanSponsoredBillView>> getSponsoredListAsync(int peopleId) {
+        String url = buildUrl("getSponsoredList", "id", String.valueOf(peopleId));
+        return getOrRequestAsync(cacheKeyFromUrl(url), url).thenApply(LegiscanResponse::getSponsoredbills);
+    }
 
 }
@@ -1,15 +1,26 @@
 package us.poliscore.legiscan.service;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +29,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import lombok.Getter;
 import lombok.SneakyThrows;
 import us.poliscore.legiscan.exception.LegiscanException;
 import us.poliscore.legiscan.view.LegiscanAmendmentView;
@@ -41,7 +53,7 @@ import us.poliscore.legiscan.view.LegiscanSupplementView;
  * 
  * For clarity, refresh frequency is not how often data requests should happen, reflecting rather the minimum time resolution that could include changes in data. Requests that exceed these recommendations will be served unchanged cached data while still spending an API query operation. In practice most use cases can be satisfied with daily updates.
  */
-public class LegiscanService {
+public class LegiscanService implements Closeable {
 
 	private static final Logger LOGGER = Logger.getLogger(LegiscanService.class.getName());
 	
@@ -51,19 +63,69 @@ public class LegiscanService {
     protected final String apiKey;
     protected final ObjectMapper objectMapper;
     protected final HttpClient httpClient;
+    
+    /**
+     * Executor used for concurrent work, such as parsing asynchronous responses or refreshing bills in parallel while updating a dataset.
+     */
+    @Getter
+    protected final ExecutorService executor;
+    
+    /**
+     * True if the executor was created by this service, in which case closing the service shuts it down. An executor passed in by the caller is left
+     * for the caller to shut down.
+     */
+    protected final boolean ownsExecutor;
+    
+    /**
+     * Paces every request made by this service. Shared across threads, so parallel work stays within the configured rate.
+     */
+    @Getter
+    protected RateLimiter rateLimiter;
+    
+    /**
+     * Decides which failed requests are retried, and how long to back off before retrying.
+     */
+    @Getter
+    protected RetryPolicy retryPolicy;
 
-    public LegiscanService(String apiKey, ObjectMapper objectMapper) {
+    /**
+     * @param executor The executor to use for concurrent work. If null, the service creates a virtual thread per task executor, which is shut down when
+     *  the service is closed.
+     */
+    public LegiscanService(String apiKey, ObjectMapper objectMapper, RateLimiter rateLimiter, RetryPolicy retryPolicy, ExecutorService executor) {
         this.apiKey = apiKey;
         this.objectMapper = objectMapper;
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(REQUEST_TIMEOUT)
                 .build();
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newVirtualThreadPerTaskExecutor();
+        this.rateLimiter = rateLimiter;
+        this.retryPolicy = retryPolicy;
+    }
+    
+    public LegiscanService(String apiKey, ObjectMapper objectMapper, RateLimiter rateLimiter, RetryPolicy retryPolicy) {
+        this(apiKey, objectMapper, rateLimiter, retryPolicy, null);
+    }
+    
+    public LegiscanService(String apiKey, ObjectMapper objectMapper) {
+        this(apiKey, objectMapper, RateLimiter.unlimited(), RetryPolicy.defaults());
     }
     
     public LegiscanService(String apiKey) {
         this(apiKey, JsonMapper.builder().addModule(new JavaTimeModule()).build());
     }
 
+    /**
+     * Shuts down the service's executor, if the service created it, waiting for work already submitted to it to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsExecutor) {
+            executor.close();
+        }
+    }
+
     protected String buildUrl(String endpoint, String... params) {
         StringBuilder url = new StringBuilder(BASE_URL)
                 .append("?key=").append(apiKey)
@@ -91,26 +153,34 @@ public class LegiscanService {
         return resp;
     }
 
+    /**
+     * Makes a request to Legiscan and binds the response to the given type. The response is parsed incrementally as it is read off the wire, rather than
+     * being buffered in memory first, which keeps peak heap down for large payloads such as masterlists and datasets.
+     */
     public <T> T makeRequest(TypeReference<T> typeRef, String url) {
         try {
             LOGGER.fine("Making Legiscan API request to: " + url);
-            byte[] responseBytes = makeRequestRaw(url);
-            return objectMapper.readValue(responseBytes, typeRef);
+            HttpResponse<InputStream> response = send(url, HttpResponse.BodyHandlers.ofInputStream());
+            return readBody(response, typeRef);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error during Legiscan API call to: " + url, e);
             throw new LegiscanException("Failed to call Legiscan API: " + url, e);
         }
     }
+    
+    protected <T> T readBody(HttpResponse<InputStream> response, TypeReference<T> typeRef) throws IOException {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new LegiscanException("HTTP " + response.statusCode() + ": " + new String(body.readAllBytes()));
+            }
+            
+            return objectMapper.readValue(body, typeRef);
+        }
+    }
 
     public byte[] makeRequestRaw(String url) {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(REQUEST_TIMEOUT)
-                    .GET()
-                    .build();
-
-            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            HttpResponse<byte[]> response = send(url, HttpResponse.BodyHandlers.ofByteArray());
 
             if (response.statusCode() == 200) {
                 return response.body();
@@ -123,6 +193,157 @@ public class LegiscanService {
             throw new LegiscanException("Failed to call Legiscan API (raw): " + url, e);
         }
     }
+    
+    protected HttpRequest newRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+    }
+    
+    /**
+     * Sends a request to Legiscan, pacing it through the rate limiter and retrying transient failures (IO errors, throttling and server errors) per
+     * the retry policy. The final response is returned regardless of its status code.
+     */
+    protected <B> HttpResponse<B> send(String url, HttpResponse.BodyHandler<B> bodyHandler) throws IOException, InterruptedException {
+        HttpRequest request = newRequest(url);
+        
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            
+            HttpResponse<B> response;
+            try {
+                response = httpClient.send(request, bodyHandler);
+            } catch (IOException e) {
+                if (!retryPolicy.canRetry(attempt)) throw e;
+                
+                long delay = retryPolicy.backoffMillis(attempt, null);
+                LOGGER.warning("Legiscan API call failed with [" + e + "], retrying in " + delay + "ms (attempt " + attempt + " of " + retryPolicy.getMaxAttempts() + ").");
+                Thread.sleep(delay);
+                continue;
+            }
+            
+            if (response.statusCode() == 200 || !retryPolicy.isRetryable(response.statusCode()) || !retryPolicy.canRetry(attempt)) {
+                return response;
+            }
+            
+            discard(response);
+            
+            long delay = retryPolicy.backoffMillis(attempt, response.headers().firstValue("Retry-After").orElse(null));
+            LOGGER.warning("Legiscan API responded with HTTP " + response.statusCode() + ", retrying in " + delay + "ms (attempt " + attempt + " of " + retryPolicy.getMaxAttempts() + ").");
+            Thread.sleep(delay);
+        }
+    }
+    
+    /**
+     * Asynchronous variant of {@link #send(String, HttpResponse.BodyHandler)}. Waits for rate limit permits and retry backoffs are scheduled rather than
+     * blocking a thread.
+     */
+    protected <B> CompletableFuture<HttpResponse<B>> sendAsync(String url, HttpResponse.BodyHandler<B> bodyHandler) {
+        return sendAsync(newRequest(url), bodyHandler, 1);
+    }
+    
+    private <B> CompletableFuture<HttpResponse<B>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<B> bodyHandler, int attempt) {
+        return delay(TimeUnit.NANOSECONDS.toMillis(rateLimiter.reserve() + 999_999))
+                .thenCompose(v -> httpClient.sendAsync(request, bodyHandler))
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        
+                        if (!(cause instanceof IOException) || !retryPolicy.canRetry(attempt)) {
+                            return CompletableFuture.<HttpResponse<B>>failedFuture(cause);
+                        }
+                        
+                        long delay = retryPolicy.backoffMillis(attempt, null);
+                        LOGGER.warning("Legiscan API call failed with [" + cause + "], retrying in " + delay + "ms (attempt " + attempt + " of " + retryPolicy.getMaxAttempts() + ").");
+                        return delay(delay).thenCompose(v -> sendAsync(request, bodyHandler, attempt + 1));
+                    }
+                    
+                    if (response.statusCode() == 200 || !retryPolicy.isRetryable(response.statusCode()) || !retryPolicy.canRetry(attempt)) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    
+                    discard(response);
+                    
+                    long delay = retryPolicy.backoffMillis(attempt, response.headers().firstValue("Retry-After").orElse(null));
+                    LOGGER.warning("Legiscan API responded with HTTP " + response.statusCode() + ", retrying in " + delay + "ms (attempt " + attempt + " of " + retryPolicy.getMaxAttempts() + ").");
+                    return delay(delay).thenCompose(v -> sendAsync(request, bodyHandler, attempt + 1));
+                })
+                .thenCompose(f -> f);
+    }
+    
+    private static CompletableFuture<Void> delay(long millis) {
+        if (millis <= 0) return CompletableFuture.completedFuture(null);
+        
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
+    
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close discarded response body", e);
+            }
+        }
+    }
+    
+    /**
+     * Asynchronous variant of {@link #makeRequest(String)}. The returned future completes exceptionally with a LegiscanException if the request fails
+     * or if Legiscan responds with an alert.
+     */
+    public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+        return makeRequestAsync(new TypeReference<LegiscanResponse>() {}, url).thenApply(resp -> {
+            if (resp.getAlert() != null) {
+                LOGGER.severe("Alert response returned from legiscan for url [" + url + "].");
+                throw new LegiscanException("Alert response returned from legiscan [" + resp.getAlert().getMessage() + "]");
+            }
+            
+            return resp;
+        });
+    }
+    
+    /**
+     * Asynchronous variant of {@link #makeRequest(TypeReference, String)}. The response body is streamed into the parser on the service's executor.
+     */
+    public <T> CompletableFuture<T> makeRequestAsync(TypeReference<T> typeRef, String url) {
+        LOGGER.fine("Making async Legiscan API request to: " + url);
+        
+        return sendAsync(url, HttpResponse.BodyHandlers.ofInputStream()).handleAsync((response, ex) -> {
+            try {
+                if (ex != null) {
+                    throw ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                }
+                
+                return readBody(response, typeRef);
+            } catch (Throwable e) {
+                LOGGER.log(Level.SEVERE, "Error during Legiscan API call to: " + url, e);
+                throw new LegiscanException("Failed to call Legiscan API: " + url, e);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #makeRequestRaw(String)}, built on HttpClient.sendAsync so that no thread is held while the request is in flight.
+     */
+    public CompletableFuture<byte[]> makeRequestRawAsync(String url) {
+        return sendAsync(url, HttpResponse.BodyHandlers.ofByteArray()).handle((response, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                LOGGER.log(Level.SEVERE, "Error during raw Legiscan API call to: " + url, cause);
+                throw new LegiscanException("Failed to call Legiscan API (raw): " + url, cause);
+            }
+            
+            if (response.statusCode() != 200) {
+                var cause = new LegiscanException("HTTP " + response.statusCode() + ": " + new String(response.body()));
+                LOGGER.log(Level.SEVERE, "Error during raw Legiscan API call to: " + url, cause);
+                throw new LegiscanException("Failed to call Legiscan API (raw): " + url, cause);
+            }
+            
+            return response.body();
+        });
+    }
 
 
     /**
@@ -469,6 +690,35 @@ public class LegiscanService {
         
         return makeRequestRaw(url);
     }
+    
+    /**
+     * Variant of {@link #getDatasetRaw(int, String, String)} which streams the ZIP archive straight to a file, rather than holding it in memory.
+     * Datasets can be several hundred megabytes, so this is the preferred way to fetch them.
+     * 
+     * @param sessionId Retrieve dataset archive information for session_id as given by id
+     * @param accessKey Access key from getDatasetList for the session_id being requested
+     * @param format (Optional) Data file format for ZIP file contents where json=JSON, csv=CSV [Default: json]
+     * @param target The file to write the archive to. Any existing file will be overwritten.
+     * @return The target path
+     */
+    public Path downloadDatasetRaw(int sessionId, String accessKey, String format, Path target) {
+        String url = buildUrl("getDatasetRaw", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
+        
+        try {
+            HttpResponse<Path> response = send(url, HttpResponse.BodyHandlers.ofFile(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            
+            if (response.statusCode() != 200) {
+                String body = Files.readString(target);
+                Files.deleteIfExists(target);
+                throw new LegiscanException("HTTP " + response.statusCode() + ": " + body);
+            }
+            
+            return target;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error during raw Legiscan API call to: " + url, e);
+            throw new LegiscanException("Failed to call Legiscan API (raw): " + url, e);
+        }
+    }
 
     /**
      * This operation returns a list of legislator records active in a given session,
@@ -577,5 +827,82 @@ public class LegiscanService {
         LegiscanResponse response = makeRequest(new TypeReference<LegiscanResponse>() {}, url);
         return response.getReturnMap();
     }
+    
+    /**
+     * Asynchronous variant of {@link #getSessionList(String)}.
+     */
+    public CompletableFuture<List<LegiscanSessionView>> getSessionListAsync(String state) {
+        return makeRequestAsync(buildUrl("getSessionList", "state", state)).thenApply(LegiscanResponse::getSessions);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getMasterList(int)}.
+     */
+    public CompletableFuture<LegiscanMasterListView> getMasterListAsync(int sessionId) {
+        return makeRequestAsync(buildUrl("getMasterList", "id", String.valueOf(sessionId))).thenApply(LegiscanResponse::getMasterlist);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getMasterListRaw(int)}.
+     */
+    public CompletableFuture<LegiscanMasterListView> getMasterListRawAsync(int sessionId) {
+        return makeRequestAsync(buildUrl("getMasterListRaw", "id", String.valueOf(sessionId))).thenApply(LegiscanResponse::getMasterlist);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getBill(int)}.
+     */
+    public CompletableFuture<LegiscanBillView> getBillAsync(int billId) {
+        return makeRequestAsync(buildUrl("getBill", "id", String.valueOf(billId))).thenApply(LegiscanResponse::getBill);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getBillText(int)}.
+     */
+    public CompletableFuture<LegiscanBillTextView> getBillTextAsync(int docId) {
+        return makeRequestAsync(buildUrl("getBillText", "id", String.valueOf(docId))).thenApply(LegiscanResponse::getText);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getAmendment(int)}.
+     */
+    public CompletableFuture<LegiscanAmendmentView> getAmendmentAsync(int amendmentId) {
+        return makeRequestAsync(buildUrl("getAmendment", "id", String.valueOf(amendmentId))).thenApply(LegiscanResponse::getAmendment);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getSupplement(int)}.
+     */
+    public CompletableFuture<LegiscanSupplementView> getSupplementAsync(int supplementId) {
+        return makeRequestAsync(buildUrl("getSupplement", "id", String.valueOf(supplementId))).thenApply(LegiscanResponse::getSupplement);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getRollCall(int)}.
+     */
+    public CompletableFuture<LegiscanRollCallView> getRollCallAsync(int rollCallId) {
+        return makeRequestAsync(buildUrl("getRollCall", "id", String.valueOf(rollCallId))).thenApply(LegiscanResponse::getRollcall);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getPerson(int)}.
+     */
+    public CompletableFuture<LegiscanPeopleView> getPersonAsync(int peopleId) {
+        return makeRequestAsync(buildUrl("getPerson", "id", String.valueOf(peopleId))).thenApply(LegiscanResponse::getPerson);
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getSessionPeople(int)}.
+     */
+    public CompletableFuture<List<LegiscanPeopleView>> getSessionPeopleAsync(int sessionId) {
+        return makeRequestAsync(buildUrl("getSessionPeople", "id", String.valueOf(sessionId))).thenApply(resp -> resp.getSessionpeople().getPeople());
+    }
+    
+    /**
+     * Asynchronous variant of {@link #getSponsoredList(int)}.
+     */
+    public CompletableFuture<List<LegiscanSponsoredBillView>> getSponsoredListAsync(int peopleId) {
+        return makeRequestAsync(buildUrl("getSponsoredList", "id", String.valueOf(peopleId))).thenApply(LegiscanResponse::getSponsoredbills);
+    }
 
 }
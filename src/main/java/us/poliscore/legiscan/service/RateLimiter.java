@@ -0,0 +1,37 @@
+package us.poliscore.legiscan.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces requests made against the Legiscan API. A single instance is intended to be shared by every thread which talks to Legiscan, so that the
+ * combined request rate of a process stays within the configured limit.
+ */
+public interface RateLimiter {
+	
+	/**
+	 * Reserves a single permit.
+	 * 
+	 * @return The number of nanoseconds the caller must wait before the permit may be used. Zero if the permit may be used immediately.
+	 */
+	public long reserve();
+	
+	/**
+	 * Reserves a single permit, blocking the calling thread until it may be used.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public default void acquire() throws InterruptedException {
+		long waitNanos = reserve();
+		
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+	
+	/**
+	 * @return A rate limiter which never delays requests.
+	 */
+	public static RateLimiter unlimited() {
+		return () -> 0L;
+	}
+}
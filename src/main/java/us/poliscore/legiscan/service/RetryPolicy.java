@@ -0,0 +1,109 @@
+package us.poliscore.legiscan.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Decides whether a failed Legiscan request should be retried, and how long to wait before doing so. Retries use exponential backoff with jitter,
+ * so that many threads which fail at the same moment do not retry in lockstep. A 'Retry-After' header sent by the server takes precedence over
+ * the computed backoff, but is still capped at the maximum delay.
+ */
+public class RetryPolicy {
+	
+	@Getter
+	private final int maxAttempts;
+	
+	@Getter
+	private final Duration baseDelay;
+	
+	@Getter
+	private final Duration maxDelay;
+	
+	/**
+	 * @param maxAttempts The total number of attempts to make, including the first. A value of 1 disables retries.
+	 * @param baseDelay The delay before the first retry. Each subsequent retry doubles the delay.
+	 * @param maxDelay The upper bound on the backoff between retries, including delays requested through 'Retry-After'
+	 */
+	public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+		if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+		
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+	
+	/**
+	 * @return A policy which retries up to 3 times, starting at half a second and backing off to at most 30 seconds.
+	 */
+	public static RetryPolicy defaults() {
+		return new RetryPolicy(4, Duration.ofMillis(500), Duration.ofSeconds(30));
+	}
+	
+	/**
+	 * @return A policy which never retries.
+	 */
+	public static RetryPolicy none() {
+		return new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+	}
+	
+	/**
+	 * @param attempt The attempt which just failed, starting at 1
+	 * @return true if another attempt may be made
+	 */
+	public boolean canRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+	
+	/**
+	 * @param statusCode The HTTP status code returned by Legiscan
+	 * @return true if the status code represents a transient failure (throttling or server side error)
+	 */
+	public boolean isRetryable(int statusCode) {
+		return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+	}
+	
+	/**
+	 * @param attempt The attempt which just failed, starting at 1
+	 * @param retryAfter (Optional) The value of the 'Retry-After' response header, either in seconds or as an HTTP date
+	 * @return The number of milliseconds to wait before the next attempt
+	 */
+	public long backoffMillis(int attempt, String retryAfter) {
+		if (retryAfter != null) {
+			Long serverDelay = parseRetryAfter(retryAfter.trim());
+			
+			// A misbehaving server cannot stall the caller for longer than the policy allows
+			if (serverDelay != null) return Math.min(maxDelay.toMillis(), Math.max(0, serverDelay));
+		}
+		
+		long ceiling = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 30));
+		if (ceiling <= 0) return 0;
+		
+		// Equal jitter: wait at least half of the exponential delay, plus a random share of the other half
+		long half = ceiling / 2;
+		return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+	}
+	
+	private static Long parseRetryAfter(String retryAfter) {
+		try {
+			return Long.parseLong(retryAfter) * 1000;
+		} catch (NumberFormatException e) {
+			// Not delta-seconds, try an HTTP date instead
+		}
+		
+		try {
+			var date = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "Retry Policy (" + maxAttempts + " attempts, " + baseDelay.toMillis() + "ms - " + maxDelay.toMillis() + "ms)";
+	}
+}
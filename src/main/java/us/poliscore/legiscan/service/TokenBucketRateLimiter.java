@@ -0,0 +1,50 @@
+package us.poliscore.legiscan.service;
+
+/**
+ * A token bucket rate limiter. The bucket refills at a steady rate of permitsPerSecond and holds at most burst permits, allowing short bursts of
+ * requests after a period of inactivity while bounding the sustained request rate.
+ * 
+ * Permits may be reserved ahead of time; callers which reserve while the bucket is empty are scheduled one after another at the refill rate.
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+	
+	private final double nanosPerPermit;
+	
+	private final double burst;
+	
+	private double permits;
+	
+	private long lastRefillNanos;
+	
+	/**
+	 * @param permitsPerSecond The sustained number of requests per second
+	 * @param burst The maximum number of requests which may be made back to back after a period of inactivity
+	 */
+	public TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond must be positive");
+		if (burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+		
+		this.nanosPerPermit = 1_000_000_000d / permitsPerSecond;
+		this.burst = burst;
+		this.permits = burst;
+		this.lastRefillNanos = System.nanoTime();
+	}
+	
+	@Override
+	public synchronized long reserve() {
+		long now = System.nanoTime();
+		
+		permits = Math.min(burst, permits + (now - lastRefillNanos) / nanosPerPermit);
+		lastRefillNanos = now;
+		
+		// A negative balance represents permits which have been promised to callers that are still waiting
+		permits -= 1;
+		
+		return permits >= 0 ? 0 : (long) Math.ceil(-permits * nanosPerPermit);
+	}
+	
+	@Override
+	public String toString() {
+		return "Token Bucket Rate Limiter (" + (1_000_000_000d / nanosPerPermit) + "/s, burst " + (int) burst + ")";
+	}
+}
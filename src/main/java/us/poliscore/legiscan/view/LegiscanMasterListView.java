@@ -18,6 +18,13 @@ import lombok.Data;
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class LegiscanMasterListView {
+	
+	/**
+	 * @return The cache key of a session's master list as fetched with getMasterListRaw
+	 */
+	public static String getRawCacheKey(Integer sessionId) {
+		return "getmasterlistraw/" + sessionId;
+	}
 
     private Map<String, BillSummary> bills = new HashMap<>();
     
@@ -0,0 +1,42 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * Fixtures shared by the cache tests.
+ */
+final class CacheTestSupport {
+
+    private CacheTestSupport() {
+    }
+
+    static ObjectMapper objectMapper() {
+        return JsonMapper.builder().addModule(new JavaTimeModule()).build();
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static LegiscanResponse bill(int billId, String changeHash) {
+        var bill = new LegiscanBillView();
+        bill.setBillId(billId);
+        bill.setChangeHash(changeHash);
+        return response(bill);
+    }
+
+    static LegiscanResponse response(LegiscanBillView bill) {
+        var response = new LegiscanResponse();
+        response.setBill(bill);
+        return response;
+    }
+}
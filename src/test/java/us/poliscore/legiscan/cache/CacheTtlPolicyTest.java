@@ -0,0 +1,80 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.response;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanMasterListView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+import us.poliscore.legiscan.view.LegiscanSessionView;
+
+public class CacheTtlPolicyTest {
+
+    @Test
+    void testFixedPolicyOnlyExemptsStaticOperations() {
+        var policy = CacheTtlPolicy.fixed(60);
+
+        assertEquals(0, policy.ttlSecs("getrollcall/1", new LegiscanResponse()));
+        assertEquals(60, policy.ttlSecs("getbill/1", bill(1, 0)));
+        assertEquals(60, policy.ttlSecs("getsessionlist/CA", new LegiscanResponse()));
+    }
+
+    @Test
+    void testStatusRulesTakePrecedenceOverOperations() {
+        var policy = CacheTtlPolicy.builder(3600)
+                .withOperationTtl("getBill", Duration.ofMinutes(30))
+                .withOperationTtl("getmasterlist", Duration.ofMinutes(15))
+                .withActiveBillTtl(Duration.ofMinutes(5))
+                .build();
+
+        assertEquals(0, policy.ttlSecs("getbill/1", bill(1, 1)));
+        assertEquals(300, policy.ttlSecs("getbill/2", bill(2, 0)));
+
+        var adjourned = bill(3, 0);
+        adjourned.getBill().setSession(session(1));
+        assertEquals(0, policy.ttlSecs("getbill/3", adjourned));
+
+        var masterlist = new LegiscanResponse();
+        masterlist.setMasterlist(new LegiscanMasterListView());
+        assertEquals(900, policy.ttlSecs("getmasterlist/7", masterlist));
+
+        // Values which are not responses fall back to the operation's TTL
+        assertEquals(1800, policy.ttlSecs("getbill/4", Map.of("bill_id", 4)));
+    }
+
+    @Test
+    void testBackendsApplyThePolicy() throws Exception {
+        var objectMapper = objectMapper();
+        var dir = tempDir("legiscan-ttl-policy-test");
+
+        try (var cache = new FileSystemLegiscanCache(dir, objectMapper, CacheTtlPolicy.statusAware(3600), CacheFormat.JSON, false, null)) {
+            cache.putAll(Map.of("getbill/1", bill(1, 1), "getbill/2", bill(2, 0)));
+            cache.put("getsessionlist/CA", new LegiscanResponse());
+
+            assertEquals(0, cache.peekMetadata("getbill/1").get().getTtlSecs());
+            assertEquals(3600, cache.peekMetadata("getbill/2").get().getTtlSecs());
+            assertEquals(86400, cache.peekMetadata("getsessionlist/CA").get().getTtlSecs());
+        }
+    }
+
+    private static LegiscanResponse bill(int billId, int completed) {
+        var bill = new LegiscanBillView();
+        bill.setBillId(billId);
+        bill.setCompleted(completed);
+        bill.setSession(session(0));
+        return response(bill);
+    }
+
+    private static LegiscanSessionView session(int sineDie) {
+        var session = new LegiscanSessionView();
+        session.setSineDie(sineDie);
+        return session;
+    }
+}
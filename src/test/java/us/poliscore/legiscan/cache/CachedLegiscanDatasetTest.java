@@ -0,0 +1,316 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.response;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+import us.poliscore.legiscan.service.CachedLegiscanService;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanMasterListView;
+import us.poliscore.legiscan.view.LegiscanMasterListView.BillSummary;
+import us.poliscore.legiscan.view.LegiscanRollCallView;
+
+public class CachedLegiscanDatasetTest {
+
+    private ObjectMapper objectMapper;
+    private File tempDir;
+    private Path archive;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-dataset-test");
+        archive = tempDir.toPath().resolve("dataset.zip");
+
+        try (var zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            entry(zip, "CO/2024-2024_Regular_Session/people/Jane_Doe.json", "{\"person\":{\"people_id\":7,\"name\":\"Jane Doe\"}}");
+            entry(zip, "CO/2024-2024_Regular_Session/bill/HB1001.json", "{\"bill\":{\"bill_id\":100,\"change_hash\":\"a\"}}");
+            entry(zip, "CO/2024-2024_Regular_Session/bill/HB1002.json", "{\"bill\":{\"bill_id\":101,\"change_hash\":\"b\"}}");
+            entry(zip, "CO/2024-2024_Regular_Session/vote/RC5.json", "{\"roll_call\":{\"roll_call_id\":5,\"bill_id\":100}}");
+            entry(zip, "CO/2024-2024_Regular_Session/README.txt", "not json");
+        }
+    }
+
+    @Test
+    void testBulkLoadReadsEntriesFromArchive() {
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60);
+        var service = new StubService(cache, objectMapper, archive);
+
+        var dataset = new LegiscanDatasetView();
+        dataset.setSessionId(2100);
+        dataset.setSessionName("2024 Regular Session");
+
+        var cached = new CachedLegiscanDataset(service, dataset, objectMapper);
+        cached.bulkLoad();
+
+        assertEquals(1, cached.getPeople().size());
+        assertEquals(2, cached.getBills().size());
+        assertEquals(1, cached.getVotes().size());
+        assertTrue(cache.presentAndValid(LegiscanBillView.getCacheKey(101)));
+        assertTrue(cache.presentAndValid(LegiscanRollCallView.getCacheKey(5)));
+    }
+
+    @Test
+    void testUnchangedDatasetSkipsBulkLoad() {
+        var reads = new AtomicInteger();
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60) {
+            @Override
+            public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+                reads.addAndGet(keys.size());
+                return super.getAll(keys, typeRef);
+            }
+        };
+        var service = new StubService(cache, objectMapper, archive);
+
+        var dataset = new LegiscanDatasetView();
+        dataset.setSessionId(2100);
+        dataset.setSessionName("2024 Regular Session");
+        dataset.setDatasetHash("d41d8cd9");
+
+        var first = new CachedLegiscanDataset(service, dataset, objectMapper);
+        first.update();
+        assertFalse(first.isBulkLoadSkipped());
+
+        var second = new CachedLegiscanDataset(service, dataset, objectMapper);
+        reads.set(0);
+        second.update();
+        assertTrue(second.isBulkLoadSkipped());
+        assertEquals(1, service.archiveRequests);
+
+        // The skipped dataset is populated from the cache only once it is asked for
+        assertEquals(0, reads.get());
+        assertEquals(1, second.getPeople().size());
+        assertEquals(2, second.getBills().size());
+        assertEquals(1, second.getVotes().size());
+        assertEquals(4, reads.get());
+        assertEquals(0, cache.peekMetadata(CachedLegiscanDataset.DatasetManifest.getCacheKey(2100)).get().getTtlSecs());
+
+        // Once an entry is no longer cached, the dataset is loaded again
+        cache.remove(LegiscanRollCallView.getCacheKey(5));
+        var reloaded = new CachedLegiscanDataset(service, dataset, objectMapper);
+        reloaded.update();
+        assertFalse(reloaded.isBulkLoadSkipped());
+        assertEquals(1, reloaded.getVotes().size());
+        assertEquals(2, service.archiveRequests);
+
+        dataset.setDatasetHash("e52ee9d1");
+        var third = new CachedLegiscanDataset(service, dataset, objectMapper);
+        third.update();
+        assertFalse(third.isBulkLoadSkipped());
+        assertEquals(3, service.archiveRequests);
+    }
+
+    @Test
+    void testOutdatedBillsAreRefreshedInParallel() throws Exception {
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var allStarted = new CountDownLatch(4);
+
+        try (var service = new StubService(cache, objectMapper, archive, 4)) {
+            for (int billId = 200; billId < 212; billId++) {
+                service.masterList.put(billId, "h" + billId);
+            }
+            service.billFetcher = billId -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                allStarted.countDown();
+
+                try {
+                    // Holds every fetch until four are running at once, so the bound is actually reached
+                    allStarted.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+
+                return bill(billId, "h" + billId);
+            };
+
+            var dataset = dataset();
+            var cached = new CachedLegiscanDataset(service, dataset, objectMapper);
+            cached.updateBills();
+
+            assertEquals(4, maxRunning.get());
+            assertEquals(14, cached.getBills().size());
+            assertTrue(cached.getFailures().isEmpty());
+            assertEquals("h211", service.getChangeHashIndex().get(211).get());
+        }
+    }
+
+    @Test
+    void testFailedBillsAreRecordedWithoutStoppingTheUpdate() throws Exception {
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60);
+
+        try (var service = new StubService(cache, objectMapper, archive, 2)) {
+            service.billFetcher = billId -> {
+                if (billId == 101) throw new IllegalStateException("Legiscan is down");
+                return bill(billId, "a");
+            };
+
+            var cached = new CachedLegiscanDataset(service, dataset(), objectMapper);
+            cached.updateBills();
+
+            assertEquals(1, cached.getFailures().size());
+            assertTrue(cached.getFailures().get(101) instanceof IllegalStateException);
+            assertTrue(cached.getBills().containsKey(100));
+            assertFalse(cached.getBills().containsKey(101));
+        }
+    }
+
+    @Test
+    void testExpiredBillsAreOnlyRestampedIfTheirOwnHashMatches() throws Exception {
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60);
+        long expired = Instant.now().getEpochSecond() - 120;
+
+        // The index is ahead of the cache for bill 101, as if its last write had failed
+        cache.putEntry(LegiscanBillView.getCacheKey(100), new CachedEntry<Object>(response(bill(100, "a")), expired, 60));
+        cache.putEntry(LegiscanBillView.getCacheKey(101), new CachedEntry<Object>(response(bill(101, "old")), expired, 60));
+
+        try (var service = new StubService(cache, objectMapper, archive)) {
+            service.getChangeHashIndex().put(100, "a", new CachedEntryMetadata(expired, 60));
+            service.getChangeHashIndex().put(101, "b", new CachedEntryMetadata(expired, 60));
+            service.billFetcher = billId -> bill(billId, "b");
+
+            var cached = new CachedLegiscanDataset(service, dataset(), objectMapper);
+            cached.updateBills();
+
+            assertTrue(cache.presentAndValid(LegiscanBillView.getCacheKey(100)));
+            assertFalse(cached.getBills().containsKey(100));
+            assertEquals("b", cached.getBills().get(101).getChangeHash());
+        }
+    }
+
+    @Test
+    void testUnchangedBillsAreNotRead() throws Exception {
+        var reads = new AtomicInteger();
+        var cache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60) {
+            @Override
+            public <T> Map<String, CachedEntry<T>> getAll(Collection<String> keys, TypeReference<T> typeRef) {
+                reads.addAndGet(keys.size());
+                return super.getAll(keys, typeRef);
+            }
+
+            @Override
+            public Optional<CachedEntryMetadata> peekMetadata(String key) {
+                if (!key.startsWith("getbill/")) return super.peekMetadata(key);
+
+                reads.incrementAndGet();
+                return super.peekMetadata(key);
+            }
+
+            @Override
+            public boolean presentAndValid(String key) {
+                reads.incrementAndGet();
+                return super.presentAndValid(key);
+            }
+        };
+
+        try (var service = new StubService(cache, objectMapper, archive)) {
+            service.getCache().put(LegiscanBillView.getCacheKey(100), response(bill(100, "a")));
+            service.getCache().put(LegiscanBillView.getCacheKey(101), response(bill(101, "b")));
+            reads.set(0);
+
+            var cached = new CachedLegiscanDataset(service, dataset(), objectMapper);
+            cached.updateBills();
+
+            assertEquals(0, reads.get());
+            assertTrue(cached.getFailures().isEmpty());
+        }
+    }
+
+    private static LegiscanDatasetView dataset() {
+        var dataset = new LegiscanDatasetView();
+        dataset.setSessionId(2100);
+        dataset.setSessionName("2024 Regular Session");
+        return dataset;
+    }
+
+    private static LegiscanBillView bill(int billId, String changeHash) {
+        var bill = new LegiscanBillView();
+        bill.setBillId(billId);
+        bill.setChangeHash(changeHash);
+        return bill;
+    }
+
+    private static void entry(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    static class StubService extends CachedLegiscanService {
+        private final Path archive;
+        final Map<Integer, String> masterList = new LinkedHashMap<Integer, String>(Map.of(100, "a", 101, "b"));
+        IntFunction<LegiscanBillView> billFetcher;
+        int archiveRequests = 0;
+
+        StubService(LegiscanCache cache, ObjectMapper objectMapper, Path archive) {
+            this(cache, objectMapper, archive, 1);
+        }
+
+        StubService(LegiscanCache cache, ObjectMapper objectMapper, Path archive, int updateParallelism) {
+            super(CachedLegiscanService.builder("fake-api-key")
+                    .withCache(cache)
+                    .withObjectMapper(objectMapper)
+                    .withUpdateParallelism(updateParallelism));
+            this.archive = archive;
+        }
+
+        @Override
+        public Path getDatasetArchive(LegiscanDatasetView dataset, String format) {
+            archiveRequests++;
+            return archive;
+        }
+
+        @Override
+        public LegiscanMasterListView getMasterListRaw(int sessionId) {
+            var masterlist = new LegiscanMasterListView();
+            masterList.forEach((billId, changeHash) -> masterlist.getBills().put(String.valueOf(masterlist.getBills().size()), summary(billId, changeHash)));
+            return masterlist;
+        }
+
+        @Override
+        public LegiscanBillView getBill(int billId) {
+            var bill = billFetcher.apply(billId);
+            getChangeHashIndex().put(bill.getBillId(), bill.getChangeHash());
+            return bill;
+        }
+
+        private static BillSummary summary(int billId, String changeHash) {
+            var summary = new BillSummary();
+            summary.setBillId(billId);
+            summary.setChangeHash(changeHash);
+            return summary;
+        }
+    }
+}
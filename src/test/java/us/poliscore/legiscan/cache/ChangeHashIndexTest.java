@@ -0,0 +1,93 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+
+public class ChangeHashIndexTest {
+
+    @Test
+    void testIndexSurvivesReopen() throws Exception {
+        File file = new File(tempDir("legiscan-index-test"), "index/changehash.log");
+
+        try (var index = new ChangeHashIndex(file)) {
+            index.put(100, "a");
+            index.put(101, "b");
+            index.put(100, "c", new CachedEntryMetadata(1000, 60));
+            index.remove(101);
+        }
+
+        try (var index = new ChangeHashIndex(file)) {
+            assertEquals(Optional.of("c"), index.get(100));
+            assertEquals(new ChangeHashIndex.Entry("c", 1000, 60), index.getEntry(100).get());
+            assertTrue(index.getEntry(100).get().isExpired());
+            assertTrue(index.get(101).isEmpty());
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void testLinesWithoutMetadataAreStillRead() throws Exception {
+        File file = new File(tempDir("legiscan-index-test"), "changehash.log");
+        Files.writeString(file.toPath(), "100\ta\n101\tb\t" + Instant.now().getEpochSecond() + "\t3600\n");
+
+        try (var index = new ChangeHashIndex(file)) {
+            assertFalse(index.getEntry(100).get().hasMetadata());
+            assertTrue(index.getEntry(101).get().hasMetadata());
+            assertFalse(index.getEntry(101).get().isExpired());
+        }
+    }
+
+    @Test
+    void testReopeningCompactsSupersededLines() throws Exception {
+        File file = new File(tempDir("legiscan-index-test"), "changehash.log");
+
+        try (var index = new ChangeHashIndex(file, true)) {
+            for (int i = 0; i < 1500; i++) {
+                index.put(100, "a" + i);
+                index.put(101, "b" + i);
+            }
+        }
+        assertEquals(3000, Files.readAllLines(file.toPath()).size());
+
+        try (var index = new ChangeHashIndex(file, true)) {
+            assertEquals(2, Files.readAllLines(file.toPath()).size());
+            assertEquals(Optional.of("a1499"), index.get(100));
+            assertEquals(Optional.of("b1499"), index.get(101));
+        }
+    }
+
+    @Test
+    void testAppendsSurviveCompactionByAnotherWriter() throws Exception {
+        File file = new File(tempDir("legiscan-index-test"), "changehash.log");
+
+        try (var first = new ChangeHashIndex(file, true)) {
+            for (int i = 0; i < 1500; i++) {
+                first.put(100, "a" + i);
+            }
+
+            // Opening the log again compacts it, replacing the file the first index has been appending to
+            try (var second = new ChangeHashIndex(file, true)) {
+                second.put(101, "b");
+            }
+
+            first.put(102, "c");
+        }
+
+        try (var index = new ChangeHashIndex(file, true)) {
+            assertEquals(Optional.of("a1499"), index.get(100));
+            assertEquals(Optional.of("b"), index.get(101));
+            assertEquals(Optional.of("c"), index.get(102));
+        }
+    }
+}
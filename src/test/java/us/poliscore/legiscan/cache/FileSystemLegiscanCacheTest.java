@@ -1,13 +1,27 @@
 package us.poliscore.legiscan.cache;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -16,8 +30,8 @@ import org.junit.jupiter.api.TestInstance;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import us.poliscore.legiscan.view.LegiscanResponse;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class FileSystemLegiscanCacheTest {
@@ -28,15 +42,13 @@ public class FileSystemLegiscanCacheTest {
 
     @BeforeAll
     void setup() throws Exception {
-        objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
-        tempDir = Files.createTempDirectory("legiscan-cache-test").toFile();
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-cache-test");
     }
 
     @AfterEach
-    void cleanUp() {
-        for (File file : tempDir.listFiles()) {
-            file.delete();
-        }
+    void cleanUp() throws Exception {
+        FileUtils.cleanDirectory(tempDir);
     }
 
     @AfterAll
@@ -71,4 +83,225 @@ public class FileSystemLegiscanCacheTest {
         assertTrue(result.isPresent());
         assertEquals("2", result.get().get("a"));
     }
+
+    @Test
+    void testBinaryFormatsRoundTrip() {
+        for (CacheFormat format : CacheFormat.values()) {
+            cache = new FileSystemLegiscanCache(tempDir, objectMapper, 0, format);
+            cache.put("formatTest", Map.of("format", format.name()));
+
+            Optional<Map<String, String>> result = cache.getOrExpire("formatTest", new TypeReference<>() {});
+            assertTrue(result.isPresent());
+            assertEquals(format.name(), result.get().get("format"));
+            assertEquals(1, cache.entryDirectory("formatTest").list().length);
+        }
+    }
+
+    @Test
+    void testMigrateRewritesLegacyEntries() {
+        var legacy = new FileSystemLegiscanCache(tempDir, objectMapper);
+        legacy.put("getbill/1", Map.of("a", "1"));
+        legacy.put("getbill/2", Map.of("a", "2"));
+        long timestamp = legacy.peek("getbill/1").get().getTimestamp();
+
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 0, CacheFormat.SMILE_DEFLATE);
+        assertTrue(cache.peek("getbill/1").isPresent());
+        assertEquals(2, cache.migrate());
+        assertEquals(0, cache.migrate());
+
+        assertFalse(new File(cache.entryDirectory("getbill/1"), "cached.json").exists());
+        assertTrue(new File(cache.entryDirectory("getbill/1"), "cached.bin").exists());
+        assertEquals(timestamp, cache.peek("getbill/1").get().getTimestamp());
+
+        Optional<Map<String, String>> result = legacy.getOrExpire("getbill/2", new TypeReference<>() {});
+        assertEquals("2", result.get().get("a"));
+    }
+
+    @Test
+    void testTypedPeekBindsLegacyEntries() throws Exception {
+        // Entries written before the metadata was ordered first have the value ahead of the timestamp
+        File legacy = new File(tempDir, "getbill/3/cached.json");
+        legacy.getParentFile().mkdirs();
+        Files.writeString(legacy.toPath(), "{\"value\":{\"bill\":{\"bill_id\":3,\"change_hash\":\"abc\"}},\"timestamp\":100,\"ttlSecs\":0}");
+
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        var entry = cache.peek("getbill/3", new TypeReference<LegiscanResponse>() {}).get();
+
+        assertEquals(100, entry.getTimestamp());
+        assertEquals(3, entry.getValue().getBill().getBillId());
+        assertEquals("abc", cache.getOrExpire("getbill/3").get().getBill().getChangeHash());
+    }
+
+    @Test
+    void testMetadataReadsDoNotRequireTheValue() throws Exception {
+        for (CacheFormat format : CacheFormat.values()) {
+            cache = new FileSystemLegiscanCache(tempDir, objectMapper, 0, format);
+            cache.put("getmasterlistraw/1", Map.of("a", "1"), 60);
+            cache.put("getmasterlistraw/2", Map.of("a", "2"), 60);
+
+            // Truncate the second entry partway through its value. Its metadata must still be readable.
+            File file = new File(cache.entryDirectory("getmasterlistraw/2"), format.getFileName());
+            byte[] data = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(data, data.length - 6));
+
+            assertEquals(60, cache.peekMetadata("getmasterlistraw/1").get().getTtlSecs());
+            assertEquals(60, cache.peekMetadata("getmasterlistraw/2").get().getTtlSecs());
+            assertTrue(cache.presentAndValid("getmasterlistraw/2"));
+        }
+    }
+
+    @Test
+    void testPresentAndValidRespectsExpiry() throws Exception {
+        File expired = new File(tempDir, "getmasterlistraw/4/cached.json");
+        expired.getParentFile().mkdirs();
+        Files.writeString(expired.toPath(), "{\"timestamp\":100,\"ttlSecs\":60,\"value\":{}}");
+
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        assertTrue(cache.peekMetadata("getmasterlistraw/4").get().isExpired());
+        assertFalse(cache.presentAndValid("getmasterlistraw/4"));
+        assertFalse(cache.getOrExpire("getmasterlistraw/4").isPresent());
+        assertFalse(expired.exists());
+    }
+
+    @Test
+    void testConcurrentWritersNeverExposePartialEntries() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 0, CacheFormat.JSON, true);
+        cache.put("getbill/5", Map.of("n", "0"));
+
+        var failures = new AtomicInteger();
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++) {
+                int writer = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        cache.put("getbill/5", Map.of("n", writer + "-" + i, "padding", "x".repeat(4096)));
+                    }
+                }));
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        if (cache.peek("getbill/5").isEmpty()) failures.incrementAndGet();
+                    }
+                }));
+            }
+
+            for (var future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(1, cache.entryDirectory("getbill/5").list().length);
+        cache.close();
+    }
+
+    @Test
+    void testBatchReadsAndWrites() {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+
+        var batch = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 50; i++) {
+            batch.put("getbill/" + i, Map.of("n", String.valueOf(i)));
+        }
+        cache.putAll(batch);
+
+        var entries = cache.getAll(List.of("getbill/7", "getbill/42", "getbill/99"), new TypeReference<Map<String, String>>() {});
+        assertEquals(2, entries.size());
+        assertEquals("42", entries.get("getbill/42").getValue().get("n"));
+        assertEquals(60, entries.get("getbill/7").getTtlSecs());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(cache.presentAndValid("getbill/" + i));
+        }
+    }
+
+    @Test
+    void testEntriesAreShardedAndLegacyLayoutIsMigrated() throws Exception {
+        // Written in the older layout, with one directory per key directly under the operation
+        for (String key : List.of("getbill/1", "getbill/2", "getsessionlist/ca")) {
+            File legacy = new File(tempDir, key + "/cached.json");
+            legacy.getParentFile().mkdirs();
+            objectMapper.writeValue(legacy, new LegiscanCache.CachedEntry<Object>(Map.of("key", key), 100, 0));
+        }
+
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        cache.put("get bill/ü.~", Map.of("key", "odd"));
+
+        for (String key : List.of("getbill/1", "getbill/2", "getsessionlist/ca")) {
+            assertEquals(key, cache.getOrExpire(key, new TypeReference<Map<String, String>>() {}).get().get("key"));
+            assertEquals(4, tempDir.toPath().relativize(cache.entryDirectory(key).toPath()).getNameCount());
+        }
+        assertFalse(new File(tempDir, "getbill/1").exists());
+        assertEquals("odd", cache.getOrExpire("get bill/ü.~", new TypeReference<Map<String, String>>() {}).get().get("key"));
+
+        // Reopening must not migrate again
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        assertTrue(cache.presentAndValid("getbill/2"));
+        assertTrue(cache.presentAndValid("get bill/ü.~"));
+    }
+
+    @Test
+    void testPartitionerAddsADirectoryLevel() {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60, CacheFormat.JSON, false, key -> key.startsWith("getbill/") ? "ca" : null);
+        cache.put("getbill/1", Map.of("a", "1"));
+        cache.put("getsessionlist/ca", Map.of("a", "2"));
+
+        assertEquals("getbill/ca", tempDir.toPath().relativize(cache.entryDirectory("getbill/1").toPath()).subpath(0, 2).toString().replace(File.separatorChar, '/'));
+        assertTrue(cache.presentAndValid("getbill/1"));
+        assertTrue(cache.presentAndValid("getsessionlist/ca"));
+    }
+
+    @Test
+    void testSweepDeletesExpiredEntries() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        cache.put("getbill/1", Map.of("a", "1"));
+
+        File expired = new File(cache.entryDirectory("getmasterlistraw/4"), "cached.json");
+        expired.getParentFile().mkdirs();
+        Files.writeString(expired.toPath(), "{\"timestamp\":100,\"ttlSecs\":60,\"value\":{}}");
+
+        File abandoned = new File(cache.entryDirectory("getmasterlistraw/5"), "cached.json123.tmp");
+        abandoned.getParentFile().mkdirs();
+        Files.writeString(abandoned.toPath(), "{");
+        Files.setLastModifiedTime(abandoned.toPath(), FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+        File unmanaged = new File(tempDir, ".datasets/1.zip");
+        unmanaged.getParentFile().mkdirs();
+        Files.writeString(unmanaged.toPath(), "zip");
+
+        assertEquals(1, cache.sweep(0));
+        assertFalse(expired.getParentFile().exists());
+        assertFalse(abandoned.exists());
+        assertTrue(unmanaged.exists());
+        assertTrue(cache.presentAndValid("getbill/1"));
+    }
+
+    @Test
+    void testSweepEvictsLeastRecentlyUsedNonStaticEntriesFirst() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        long now = System.currentTimeMillis();
+
+        // Least recently used first. The static entry is the oldest of all, but must outlive every other entry.
+        String[] keys = { "getbill/9", "getbill/1", "getbill/2", "getbill/3" };
+        long total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], Map.of("padding", "x".repeat(1024)), i == 0 ? 0 : 60);
+
+            Path file = new File(cache.entryDirectory(keys[i]), "cached.json").toPath();
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(keys.length - i)));
+            total += Files.size(file);
+        }
+
+        long excess = Files.size(new File(cache.entryDirectory("getbill/1"), "cached.json").toPath())
+                + Files.size(new File(cache.entryDirectory("getbill/2"), "cached.json").toPath());
+
+        assertEquals(2, cache.sweep(total - excess));
+        assertTrue(cache.presentAndValid("getbill/9"));
+        assertFalse(cache.presentAndValid("getbill/1"));
+        assertFalse(cache.presentAndValid("getbill/2"));
+        assertTrue(cache.presentAndValid("getbill/3"));
+        assertFalse(cache.entryDirectory("getbill/1").exists());
+    }
 }
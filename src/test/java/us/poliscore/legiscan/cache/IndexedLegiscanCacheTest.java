@@ -0,0 +1,133 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntryMetadata;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class IndexedLegiscanCacheTest {
+
+    private ObjectMapper objectMapper;
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-indexed-test");
+    }
+
+    @Test
+    void testWrittenBillsAreIndexedWithTheirMetadata() throws Exception {
+        var index = new ChangeHashIndex();
+
+        try (var cache = new IndexedLegiscanCache(new FileSystemLegiscanCache(tempDir, objectMapper, 60), index)) {
+            cache.put("getbill/1", bill(1, "a"));
+            cache.putAll(Map.of("getbill/2", bill(2, "b"), "getrollcall/3", new LegiscanResponse()));
+
+            var metadata = cache.peekMetadata("getbill/1").get();
+            assertEquals(new ChangeHashIndex.Entry("a", metadata.getTimestamp(), 60), index.getEntry(1).get());
+            assertEquals(Optional.of("b"), index.get(2));
+            assertEquals(2, index.size());
+
+            cache.remove("getbill/2");
+            assertTrue(index.get(2).isEmpty());
+        }
+    }
+
+    @Test
+    void testFailedWritesAreNotIndexed() throws Exception {
+        var index = new ChangeHashIndex();
+        index.put(1, "old");
+
+        // Like the file system cache on an IOException, this logs and swallows the failure
+        var failing = new FileSystemLegiscanCache(tempDir, objectMapper, 60) {
+            @Override
+            public void put(String key, Object value, long ttlSecs) {
+            }
+        };
+
+        try (var cache = new IndexedLegiscanCache(failing, index)) {
+            cache.put("getbill/1", bill(1, "new"));
+            cache.put("getbill/2", bill(2, "new"));
+
+            assertTrue(index.get(1).isEmpty());
+            assertTrue(index.get(2).isEmpty());
+            assertFalse(cache.presentAndValid("getbill/1"));
+        }
+    }
+
+    @Test
+    void testBillsAreIndexedWithoutReadingTheCache() throws Exception {
+        var index = new ChangeHashIndex();
+        var reads = new AtomicInteger();
+        var policy = CacheTtlPolicy.fixed(60);
+        var files = new FileSystemLegiscanCache(tempDir, objectMapper, policy, CacheFormat.JSON, false, null) {
+            @Override
+            public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+                reads.incrementAndGet();
+                return super.peek(key, typeRef);
+            }
+
+            @Override
+            public Optional<CachedEntryMetadata> peekMetadata(String key) {
+                reads.incrementAndGet();
+                return super.peekMetadata(key);
+            }
+        };
+
+        try (var cache = new IndexedLegiscanCache(files, index, objectMapper, policy)) {
+            long before = Instant.now().getEpochSecond();
+            cache.put("getbill/1", bill(1, "a"));
+            cache.putAll(Map.of("getbill/2", bill(2, "b")));
+
+            // As restored from a snapshot, the value is not a LegiscanResponse
+            Object restored = objectMapper.convertValue(bill(3, "c"), Object.class);
+            cache.putEntry("getbill/3", new CachedEntry<Object>(restored, before - 10, 0));
+
+            assertEquals(0, reads.get());
+            assertEquals(60, index.getEntry(1).get().ttlSecs());
+            assertTrue(index.getEntry(1).get().timestamp() <= files.peekMetadata("getbill/1").get().getTimestamp());
+            assertEquals(Optional.of("b"), index.get(2));
+            assertEquals(new ChangeHashIndex.Entry("c", before - 10, 0), index.getEntry(3).get());
+        }
+    }
+
+    @Test
+    void testDeletionsBeneathTheIndexAreNotSeen() throws Exception {
+        var index = new ChangeHashIndex();
+        var files = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        long expired = Instant.now().getEpochSecond() - 120;
+
+        try (var cache = new IndexedLegiscanCache(files, index, objectMapper, CacheTtlPolicy.fixed(60))) {
+            cache.put("getbill/1", bill(1, "a"));
+            cache.putEntry("getbill/2", new CachedEntry<Object>(bill(2, "b"), expired, 60));
+
+            // An entry the cache expires itself stays indexed, but as expired, so the next masterlist diff checks it in the cache again
+            assertTrue(files.getOrExpire("getbill/2").isEmpty());
+            assertTrue(index.getEntry(2).get().isExpired());
+
+            // An entry deleted before it expires stays indexed as unexpired
+            files.remove("getbill/1");
+            assertFalse(index.getEntry(1).get().isExpired());
+            assertFalse(cache.presentAndValid("getbill/1"));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package us.poliscore.legiscan.cache;
+
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.response;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * Compares the cache backends on a realistic number of keys. Not run as part of the build; it only runs when the number of keys is given, e.g.
+ * mvn test -Dtest=LegiscanCacheBenchmarkTest -Dlegiscan.benchmark.keys=200000
+ */
+@EnabledIfSystemProperty(named = "legiscan.benchmark.keys", matches = ".+")
+public class LegiscanCacheBenchmarkTest {
+
+    private static final int KEYS = Integer.getInteger("legiscan.benchmark.keys", 100_000);
+
+    private static final int READS = KEYS * 2;
+
+    @Test
+    void benchmarkBackends() throws Exception {
+        ObjectMapper objectMapper = objectMapper();
+        File root = tempDir("legiscan-benchmark");
+
+        run("FileSystem (JSON)", dir -> new FileSystemLegiscanCache(dir, objectMapper, 3600), new File(root, "fs-json"));
+        run("FileSystem (Smile)", dir -> new FileSystemLegiscanCache(dir, objectMapper, 3600, CacheFormat.SMILE), new File(root, "fs-smile"));
+        run("Segment", dir -> new SegmentLegiscanCache(dir, objectMapper, 3600, CacheFormat.SMILE, SegmentLegiscanCache.DEFAULT_MAX_SEGMENT_BYTES, Duration.ZERO), new File(root, "segment"));
+        run("MVStore", dir -> new MVStoreLegiscanCache(new File(dir, "cache.mv.db"), objectMapper, 3600), new File(root, "mvstore"));
+    }
+
+    private void run(String name, Function<File, LegiscanCache> factory, File dir) throws Exception {
+        List<LegiscanResponse> bills = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            bills.add(bill(i));
+        }
+
+        try (var cache = factory.apply(dir)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < KEYS; i++) {
+                cache.put(LegiscanBillView.getCacheKey(i), bills.get(i));
+            }
+            long writes = System.nanoTime() - start;
+
+            var random = new Random(42);
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                cache.getOrExpire(LegiscanBillView.getCacheKey(random.nextInt(KEYS))).orElseThrow();
+            }
+            long reads = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                cache.presentAndValid(LegiscanBillView.getCacheKey(random.nextInt(KEYS)));
+            }
+            long checks = System.nanoTime() - start;
+
+            System.out.printf("%-20s %,d keys: put %,8.1f us/op, getOrExpire %,8.1f us/op, presentAndValid %,8.1f us/op%n",
+                    name, KEYS, writes / 1000.0 / KEYS, reads / 1000.0 / READS, checks / 1000.0 / READS);
+        }
+
+        System.out.printf("%-20s %,d bytes on disk%n", name, sizeOf(dir));
+    }
+
+    private static long sizeOf(File dir) throws Exception {
+        try (var files = Files.walk(dir.toPath())) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static LegiscanResponse bill(int billId) {
+        var bill = new LegiscanBillView();
+        bill.setBillId(billId);
+        bill.setChangeHash(Integer.toHexString(billId * 31));
+        bill.setTitle("An act concerning the appropriation of funds for item " + billId);
+        bill.setDescription("A bill for an act relating to the regulation of things, and making an appropriation therefor. Bill number " + billId + ".");
+        bill.setUrl("https://legiscan.com/US/bill/HB" + billId + "/2024");
+        return response(bill);
+    }
+}
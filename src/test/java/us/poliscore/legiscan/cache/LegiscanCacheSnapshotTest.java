@@ -0,0 +1,97 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.service.CachedLegiscanService;
+
+public class LegiscanCacheSnapshotTest {
+
+    private ObjectMapper objectMapper;
+    private Path tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-snapshot-test").toPath();
+    }
+
+    @Test
+    void testExportAndImportKeepTimestamps() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        Path archive = tempDir.resolve("cache.snapshot");
+        var snapshot = new LegiscanCacheSnapshot(objectMapper);
+
+        try (var source = new FileSystemLegiscanCache(tempDir.resolve("source").toFile(), objectMapper, 3600)) {
+            source.put("getbill/1", bill(1, "a"));
+            source.put("getbill/2", bill(2, "b"));
+            source.putEntry("getrollcall/7", new CachedEntry<Object>(bill(7, "c"), now - 86400, 0));
+
+            assertEquals(3, snapshot.exportCache(source, archive, 0));
+        }
+
+        try (var target = new MVStoreLegiscanCache(new File(tempDir.toFile(), "target.mv.db"), objectMapper, 60)) {
+            assertEquals(3, snapshot.importCache(target, archive, 2));
+
+            assertEquals(List.of("getbill/1", "getbill/2", "getrollcall/7"), target.keys(""));
+            assertEquals("b", target.getOrExpire("getbill/2").get().getBill().getChangeHash());
+            assertEquals(3600, target.peekMetadata("getbill/1").get().getTtlSecs());
+            assertEquals(now - 86400, target.peekMetadata("getrollcall/7").get().getTimestamp());
+            assertTrue(target.presentAndValid("getrollcall/7"));
+        }
+
+        // Only entries written after the cut off are included in an incremental snapshot
+        try (var source = new FileSystemLegiscanCache(tempDir.resolve("source").toFile(), objectMapper, 3600);
+             var target = new FileSystemLegiscanCache(tempDir.resolve("incremental").toFile(), objectMapper, 3600)) {
+            assertEquals(2, snapshot.exportCache(source, archive, now - 60));
+            assertEquals(2, snapshot.importCache(target, archive, 1));
+
+            assertTrue(target.presentAndValid("getbill/1"));
+            assertFalse(target.presentAndValid("getrollcall/7"));
+        }
+    }
+
+    @Test
+    void testImportThroughTheServiceIndexesBills() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        Path archive = tempDir.resolve("cache.snapshot");
+        var snapshot = new LegiscanCacheSnapshot(objectMapper);
+
+        try (var source = new MVStoreLegiscanCache(new File(tempDir.toFile(), "source.mv.db"), objectMapper, 60)) {
+            source.putEntry("getbill/1", new CachedEntry<Object>(bill(1, "a"), now - 30, 60));
+            source.put("getrollcall/7", bill(7, "c"));
+
+            snapshot.exportCache(source, archive, 0);
+        }
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(tempDir.resolve("target").toFile(), objectMapper, 60))
+                .withObjectMapper(objectMapper);
+
+        try (var service = builder.build()) {
+            service.getChangeHashIndex().put(1, "stale");
+
+            assertEquals(2, snapshot.importCache(service.getCache(), archive, 1));
+
+            var indexed = service.getChangeHashIndex().getEntry(1).get();
+            assertEquals("a", indexed.changeHash());
+            assertEquals(now - 30, indexed.timestamp());
+            assertEquals(1, service.getChangeHashIndex().size());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class MVStoreLegiscanCacheTest {
+
+    private ObjectMapper objectMapper;
+    private File storeFile;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        storeFile = new File(tempDir("legiscan-mvstore-test"), "cache.mv.db");
+    }
+
+    @Test
+    void testBatchWritesAndPrefixScans() throws Exception {
+        try (var cache = new MVStoreLegiscanCache(storeFile, objectMapper, 60)) {
+            var batch = new LinkedHashMap<String, Object>();
+            batch.put("getbill/2", bill(2, "b"));
+            batch.put("getbill/1", bill(1, "a"));
+            batch.put("getrollcall/7", bill(7, "c"));
+            cache.putAll(batch);
+            cache.remove("getbill/2");
+
+            assertEquals(List.of("getbill/1"), cache.keys("getbill/"));
+            assertEquals(0, cache.peekMetadata("getrollcall/7").get().getTtlSecs());
+            assertEquals(60, cache.peekMetadata("getbill/1").get().getTtlSecs());
+        }
+
+        try (var cache = new MVStoreLegiscanCache(storeFile, objectMapper, 60)) {
+            assertEquals(2, cache.size());
+            assertTrue(cache.presentAndValid("getbill/1"));
+            assertFalse(cache.presentAndValid("getbill/2"));
+            assertEquals("a", cache.getOrExpire("getbill/1").get().getBill().getChangeHash());
+        }
+    }
+
+    @Test
+    void testEntriesAreVisitedAsOfTheStartOfTheWalk() throws Exception {
+        try (var cache = new MVStoreLegiscanCache(storeFile, objectMapper, 60)) {
+            for (int i = 1; i <= 5; i++) {
+                cache.put("getbill/" + i, bill(i, "before"));
+            }
+
+            var visited = new ArrayList<String>();
+            cache.forEachEntry("getbill/", metadata -> true, (key, entry) -> {
+                if (visited.isEmpty()) {
+                    cache.put("getbill/4", bill(4, "after"));
+                    cache.put("getbill/6", bill(6, "after"));
+                    cache.remove("getbill/5");
+                }
+
+                var value = objectMapper.convertValue(entry.getValue(), LegiscanResponse.class);
+                visited.add(key + "=" + value.getBill().getChangeHash());
+            });
+
+            assertEquals(List.of("getbill/1=before", "getbill/2=before", "getbill/3=before", "getbill/4=before", "getbill/5=before"), visited);
+            assertEquals("after", cache.getOrExpire("getbill/4").get().getBill().getChangeHash());
+        }
+    }
+
+    @Test
+    void testExpiredEntriesAreRemovedOnRead() throws Exception {
+        long expired = Instant.now().getEpochSecond() - 120;
+
+        try (var cache = new MVStoreLegiscanCache(storeFile, objectMapper, 60)) {
+            cache.putEntry("getbill/1", new CachedEntry<Object>(bill(1, "a"), expired, 60));
+            cache.put("getbill/2", bill(2, "b"));
+
+            assertTrue(cache.getOrExpire("getbill/1").isEmpty());
+            assertTrue(cache.peekMetadata("getbill/1").isEmpty());
+            assertEquals("b", cache.getOrExpire("getbill/2").get().getBill().getChangeHash());
+            assertEquals(1, cache.size());
+        }
+    }
+}
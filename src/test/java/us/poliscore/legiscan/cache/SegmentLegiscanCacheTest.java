@@ -0,0 +1,180 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class SegmentLegiscanCacheTest {
+
+    private ObjectMapper objectMapper;
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-segment-test");
+    }
+
+    @Test
+    void testEntriesSurviveReopen() throws Exception {
+        try (var cache = open(1024 * 1024)) {
+            cache.put("getbill/1", bill(1, "a"));
+            cache.put("getbill/2", bill(2, "b"));
+            cache.put("getbill/1", bill(1, "c"));
+            cache.remove("getbill/2");
+        }
+
+        try (var cache = open(1024 * 1024)) {
+            assertEquals(1, cache.size());
+            assertEquals("c", cache.getOrExpire("getbill/1").get().getBill().getChangeHash());
+            assertFalse(cache.presentAndValid("getbill/2"));
+        }
+    }
+
+    @Test
+    void testTornRecordIsTruncated() throws Exception {
+        try (var cache = open(1024 * 1024)) {
+            cache.put("getbill/1", bill(1, "a"));
+            cache.put("getbill/2", bill(2, "b"));
+        }
+
+        // Simulate a crash partway through appending a third record
+        File segment = new File(tempDir, "000001.seg");
+        Files.write(segment.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7 }, StandardOpenOption.APPEND);
+
+        try (var cache = open(1024 * 1024)) {
+            assertEquals(2, cache.size());
+            cache.put("getbill/3", bill(3, "c"));
+        }
+
+        try (var cache = open(1024 * 1024)) {
+            assertEquals(3, cache.size());
+            assertEquals("c", cache.getOrExpire("getbill/3").get().getBill().getChangeHash());
+        }
+    }
+
+    @Test
+    void testCompactionReclaimsOverwrittenEntries() throws Exception {
+        try (var cache = open(2048)) {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 5; i++) {
+                    cache.put("getbill/" + i, bill(i, "hash" + round));
+                }
+            }
+            cache.put("getmasterlistraw/1", Map.of("a", "1"));
+
+            int before = cache.segmentCount();
+            cache.compact();
+
+            assertTrue(cache.segmentCount() < before);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("hash19", cache.getOrExpire("getbill/" + i).get().getBill().getChangeHash());
+            }
+        }
+
+        try (var cache = open(2048)) {
+            assertEquals(6, cache.size());
+            assertEquals("hash19", cache.getOrExpire("getbill/4").get().getBill().getChangeHash());
+            assertEquals("1", cache.getOrExpire("getmasterlistraw/1", new TypeReference<Map<String, String>>() {}).get().get("a"));
+        }
+    }
+
+    @Test
+    void testBatchReadsAndWrites() throws Exception {
+        try (var cache = open(2048)) {
+            var batch = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < 20; i++) {
+                batch.put("getbill/" + i, bill(i, "hash" + i));
+            }
+            cache.putAll(batch);
+            cache.put("getbill/3", bill(3, "updated"));
+
+            var entries = cache.getAll(List.of("getbill/3", "getbill/17", "getbill/0", "getbill/99"), new TypeReference<LegiscanResponse>() {});
+            assertEquals(3, entries.size());
+            assertEquals("updated", entries.get("getbill/3").getValue().getBill().getChangeHash());
+            assertEquals("hash17", entries.get("getbill/17").getValue().getBill().getChangeHash());
+            assertEquals(60, entries.get("getbill/0").getTtlSecs());
+        }
+
+        try (var cache = open(2048)) {
+            assertEquals(20, cache.size());
+        }
+    }
+
+    @Test
+    void testCompactionDropsExpiredEntries() throws Exception {
+        long expired = Instant.now().getEpochSecond() - 120;
+        int size;
+
+        try (var cache = open(2048)) {
+            for (int i = 0; i < 10; i++) {
+                cache.putEntry("getbill/" + i, new CachedEntry<Object>(bill(i, "old"), expired, 60));
+            }
+            cache.put("getbill/10", bill(10, "live"));
+
+            // Seal the segments holding the expired entries
+            for (int i = 0; i < 10; i++) {
+                cache.put("getmasterlistraw/" + i, Map.of("filler", "x".repeat(200)));
+            }
+
+            int before = cache.segmentCount();
+            cache.compact();
+
+            assertTrue(cache.segmentCount() < before);
+            assertTrue(cache.size() < 21);
+            assertFalse(cache.peek("getbill/0").isPresent());
+            size = cache.size();
+        }
+
+        try (var cache = open(2048)) {
+            assertEquals(size, cache.size());
+            assertFalse(cache.peek("getbill/0").isPresent());
+            assertEquals("live", cache.getOrExpire("getbill/10").get().getBill().getChangeHash());
+        }
+    }
+
+    @Test
+    void testInvalidKeysAreRejected() throws Exception {
+        try (var cache = open(1024 * 1024)) {
+            cache.put("getbill/1", bill(1, "a"));
+
+            assertThrows(IllegalArgumentException.class, () -> cache.put("", bill(2, "b")));
+            assertThrows(IllegalArgumentException.class, () -> cache.putEntry("k".repeat(SegmentLegiscanCache.MAX_KEY_LENGTH + 1), new CachedEntry<Object>(bill(3, "c"), 0, 0)));
+            assertThrows(IllegalArgumentException.class, () -> cache.putAll(Map.of("getbill/4", bill(4, "d"), "", bill(5, "e"))));
+
+            cache.put("getbill/6", bill(6, "f"));
+        }
+
+        // Nothing was written for the rejected keys, so replay reaches every record after them
+        try (var cache = open(1024 * 1024)) {
+            assertEquals(2, cache.size());
+            assertEquals("f", cache.getOrExpire("getbill/6").get().getBill().getChangeHash());
+        }
+    }
+
+    private SegmentLegiscanCache open(long maxSegmentBytes) {
+        return new SegmentLegiscanCache(tempDir, objectMapper, 60, CacheFormat.SMILE, maxSegmentBytes, Duration.ZERO);
+    }
+}
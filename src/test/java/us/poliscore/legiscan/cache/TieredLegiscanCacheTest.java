@@ -0,0 +1,115 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class TieredLegiscanCacheTest {
+
+    private ObjectMapper objectMapper;
+    private CountingCache disk;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        File tempDir = tempDir("legiscan-tiered-test");
+        disk = new CountingCache(tempDir, objectMapper);
+    }
+
+    @Test
+    void testHitsAreServedFromMemory() {
+        var cache = new TieredLegiscanCache(disk, 10);
+        cache.put("getbill/1", bill(1, "abc"));
+
+        LegiscanResponse first = cache.getOrExpire("getbill/1").orElseThrow();
+        LegiscanResponse second = cache.getOrExpire("getbill/1").orElseThrow();
+
+        assertSame(first, second);
+        assertEquals(1, disk.reads.get());
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        var cache = new TieredLegiscanCache(disk, 2);
+        for (int i = 1; i <= 3; i++) {
+            cache.put("getbill/" + i, bill(i, "abc"));
+            cache.getOrExpire("getbill/" + i);
+        }
+
+        assertEquals(2, cache.memorySize());
+
+        disk.reads.set(0);
+        cache.getOrExpire("getbill/1");
+        assertEquals(1, disk.reads.get());
+    }
+
+    @Test
+    void testRemoveInvalidatesMemory() {
+        var cache = new TieredLegiscanCache(disk, 10);
+        cache.put("getbill/1", bill(1, "abc"));
+        cache.getOrExpire("getbill/1");
+
+        cache.remove("getbill/1");
+
+        assertEquals(Optional.empty(), cache.getOrExpire("getbill/1"));
+    }
+
+    @Test
+    void testExpiredEntriesAreNotServed() {
+        var cache = new TieredLegiscanCache(disk, 10);
+        disk.put("getbill/1", bill(1, "abc"));
+        var entry = disk.peek("getbill/1").orElseThrow();
+        disk.putRaw("getbill/1", new LegiscanCache.CachedEntry<Object>(entry.getValue(), entry.getTimestamp() - 120, 60));
+
+        assertEquals(Optional.empty(), cache.getOrExpire("getbill/1"));
+        assertEquals(0, cache.memorySize());
+        assertTrue(disk.peekMetadata("getbill/1").isEmpty());
+    }
+
+    static class CountingCache extends FileSystemLegiscanCache {
+        final AtomicInteger reads = new AtomicInteger();
+        private final ObjectMapper objectMapper;
+
+        CountingCache(File baseDir, ObjectMapper objectMapper) {
+            super(baseDir, objectMapper, 60);
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        public <T> Optional<CachedEntry<T>> peek(String key, TypeReference<T> typeRef) {
+            reads.incrementAndGet();
+            return super.peek(key, typeRef);
+        }
+
+        @Override
+        public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+            reads.incrementAndGet();
+            return super.getOrExpire(key, typeRef);
+        }
+
+        void putRaw(String key, CachedEntry<?> entry) {
+            try {
+                File dir = entryDirectory(key);
+                dir.mkdirs();
+                objectMapper.writeValue(new File(dir, "cached.json"), entry);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static us.poliscore.legiscan.cache.CacheTestSupport.bill;
+import static us.poliscore.legiscan.cache.CacheTestSupport.objectMapper;
+import static us.poliscore.legiscan.cache.CacheTestSupport.tempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class WriteBehindLegiscanCacheTest {
+
+    private ObjectMapper objectMapper;
+    private File tempDir;
+    private BlockingCache disk;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = objectMapper();
+        tempDir = tempDir("legiscan-write-behind-test");
+        disk = new BlockingCache(tempDir, objectMapper);
+    }
+
+    @Test
+    void testQueuedWritesAreReadableAndCoalesced() throws Exception {
+        try (var cache = new WriteBehindLegiscanCache(disk, objectMapper, 10)) {
+            cache.put("getbill/1", bill(1, "a"));
+            assertTrue(disk.blocked.await(5, TimeUnit.SECONDS));
+
+            // The writer is stuck on the first batch, so these are queued and replace one another
+            for (String hash : List.of("b", "c", "d")) {
+                cache.put("getbill/2", bill(2, hash));
+            }
+
+            assertEquals(2, cache.pendingSize());
+            assertEquals("a", cache.getOrExpire("getbill/1").get().getBill().getChangeHash());
+            assertEquals("d", cache.getOrExpire("getbill/2").get().getBill().getChangeHash());
+            assertEquals(List.of("getbill/1", "getbill/2"), cache.keys("getbill/"));
+            assertFalse(disk.presentAndValid("getbill/2"));
+
+            disk.release.countDown();
+            cache.flush();
+
+            assertEquals(0, cache.pendingSize());
+            assertEquals(List.of("getbill/1", "getbill/2"), disk.written);
+            assertEquals("d", disk.getOrExpire("getbill/2").get().getBill().getChangeHash());
+        }
+    }
+
+    @Test
+    void testWritersBlockWhenQueueIsFull() throws Exception {
+        try (var cache = new WriteBehindLegiscanCache(disk, objectMapper, 2)) {
+            cache.put("getbill/1", bill(1, "a"));
+            assertTrue(disk.blocked.await(5, TimeUnit.SECONDS));
+            cache.put("getbill/2", bill(2, "b"));
+
+            var third = CompletableFuture.runAsync(() -> cache.put("getbill/3", bill(3, "c")));
+            Thread.sleep(200);
+            assertFalse(third.isDone());
+
+            // Rewriting an already queued key never waits for space
+            cache.put("getbill/2", bill(2, "bb"));
+
+            disk.release.countDown();
+            third.get(5, TimeUnit.SECONDS);
+        }
+
+        try (var reopened = new FileSystemLegiscanCache(tempDir, objectMapper, 60)) {
+            assertEquals("bb", reopened.getOrExpire("getbill/2").get().getBill().getChangeHash());
+            assertTrue(reopened.presentAndValid("getbill/3"));
+        }
+    }
+
+    @Test
+    void testCloseFlushesQueuedRemoves() throws Exception {
+        disk.release.countDown();
+        disk.put("getbill/1", bill(1, "a"));
+
+        try (var cache = new WriteBehindLegiscanCache(disk, objectMapper, 10)) {
+            cache.remove("getbill/1");
+            assertFalse(cache.presentAndValid("getbill/1"));
+        }
+
+        try (var reopened = new FileSystemLegiscanCache(tempDir, objectMapper, 60)) {
+            assertFalse(reopened.presentAndValid("getbill/1"));
+        }
+    }
+
+    @Test
+    void testQueuedPutsReportTheirResolvedTtl() throws Exception {
+        try (var cache = new WriteBehindLegiscanCache(disk, objectMapper, 10, false, CacheTtlPolicy.fixed(60))) {
+            cache.put("getbill/1", bill(1, "a"));
+            assertTrue(disk.blocked.await(5, TimeUnit.SECONDS));
+
+            cache.put("getbill/2", bill(2, "b"));
+            cache.put("getrollcall/3", bill(3, "c"));
+
+            assertEquals(60, cache.peekMetadata("getbill/2").get().getTtlSecs());
+            assertEquals(60, cache.peek("getbill/2").get().getTtlSecs());
+            assertEquals(0, cache.peekMetadata("getrollcall/3").get().getTtlSecs());
+
+            disk.release.countDown();
+            cache.flush();
+
+            assertEquals(60, disk.peekMetadata("getbill/2").get().getTtlSecs());
+        }
+    }
+
+    @Test
+    void testWriterStartsOnFirstWrite() throws Exception {
+        long writers = writerThreads();
+        var cache = new WriteBehindLegiscanCache(disk, objectMapper, 10, true);
+        assertEquals(writers, writerThreads());
+
+        disk.release.countDown();
+        cache.put("getbill/1", bill(1, "a"));
+        cache.close();
+
+        assertTrue(disk.presentAndValid("getbill/1"));
+    }
+
+    @Test
+    void testFlushDoesNotWaitForLaterWrites() throws Exception {
+        var writing = new CountDownLatch(2);
+        var releaseSecond = new CountDownLatch(1);
+        var releaseThird = new CountDownLatch(1);
+        var slow = new FileSystemLegiscanCache(tempDir, objectMapper, 60) {
+            @Override
+            public void putAll(Map<String, ?> values) {
+                try {
+                    if (values.containsKey("getbill/2")) {
+                        writing.countDown();
+                        releaseSecond.await();
+                    } else if (values.containsKey("getbill/3")) {
+                        writing.countDown();
+                        releaseThird.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.putAll(values);
+            }
+        };
+
+        try (var cache = new WriteBehindLegiscanCache(slow, objectMapper, 10)) {
+            cache.put("getbill/2", bill(2, "b"));
+            assertEquals(1, waitFor(writing, 1));
+
+            var flushed = CompletableFuture.runAsync(() -> {
+                try {
+                    cache.flush();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(100);
+
+            // Queued after the flush began, and still being written once it returns
+            cache.put("getbill/3", bill(3, "c"));
+            releaseSecond.countDown();
+            assertEquals(0, waitFor(writing, 0));
+
+            flushed.get(5, TimeUnit.SECONDS);
+            assertTrue(slow.presentAndValid("getbill/2"));
+            assertFalse(slow.presentAndValid("getbill/3"));
+
+            releaseThird.countDown();
+        }
+    }
+
+    @Test
+    void testWritesAfterCloseAreDropped() throws Exception {
+        disk.release.countDown();
+        var cache = new WriteBehindLegiscanCache(disk, objectMapper, 10);
+        cache.put("getbill/1", bill(1, "a"));
+        cache.close();
+
+        cache.put("getbill/2", bill(2, "b"));
+        cache.remove("getbill/1");
+
+        try (var reopened = new FileSystemLegiscanCache(tempDir, objectMapper, 60)) {
+            assertTrue(reopened.presentAndValid("getbill/1"));
+            assertFalse(reopened.presentAndValid("getbill/2"));
+        }
+    }
+
+    /**
+     * Waits for the latch to count down to the given count.
+     */
+    private static long waitFor(CountDownLatch latch, long count) throws InterruptedException {
+        for (int i = 0; i < 500 && latch.getCount() > count; i++) {
+            Thread.sleep(10);
+        }
+        return latch.getCount();
+    }
+
+    private static long writerThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("legiscan-cache-writer")).count();
+    }
+
+    /**
+     * Holds up the first batch of writes until released, and records the keys written.
+     */
+    private static class BlockingCache extends FileSystemLegiscanCache {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+        BlockingCache(File dir, ObjectMapper objectMapper) {
+            super(dir, objectMapper, 60);
+        }
+
+        @Override
+        public void putAll(Map<String, ?> values) {
+            blocked.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            written.addAll(values.keySet());
+            super.putAll(values);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import lombok.SneakyThrows;
+import us.poliscore.legiscan.exception.LegiscanException;
+import us.poliscore.legiscan.cache.FileSystemLegiscanCache;
+import us.poliscore.legiscan.cache.IndexedLegiscanCache;
+import us.poliscore.legiscan.cache.LegiscanCache.CachedEntry;
+import us.poliscore.legiscan.cache.TieredLegiscanCache;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanMasterListView;
+import us.poliscore.legiscan.view.LegiscanMasterListView.BillSummary;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class CachedLegiscanServiceTest {
+
+    private ObjectMapper objectMapper;
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        tempDir = Files.createTempDirectory("legiscan-service-test").toFile();
+    }
+
+    @Test
+    void testConcurrentMissesShareOneRequest() throws Exception {
+        var requests = new AtomicInteger();
+        var release = new CountDownLatch(1);
+
+        var service = new CachedLegiscanService("fake-api-key", objectMapper, new FileSystemLegiscanCache(tempDir, objectMapper, 60)) {
+            @Override
+            @SneakyThrows
+            public LegiscanResponse makeRequest(String url) {
+                requests.incrementAndGet();
+                release.await(5, TimeUnit.SECONDS);
+                return billResponse(1984092);
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<LegiscanBillView>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(() -> service.getBill(1984092)));
+            }
+
+            // Give every caller a chance to miss the cache before the request completes
+            Thread.sleep(200);
+            release.countDown();
+
+            for (var future : futures) {
+                assertEquals(1984092, future.get(5, TimeUnit.SECONDS).getBillId());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testAsyncRequestsAreCoalescedAndCached() throws Exception {
+        var requests = new AtomicInteger();
+        var response = new CompletableFuture<LegiscanResponse>();
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(tempDir, objectMapper, 60))
+                .withObjectMapper(objectMapper);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+                requests.incrementAndGet();
+                return response;
+            }
+        }) {
+            var futures = new ArrayList<CompletableFuture<LegiscanBillView>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(service.getBillAsync(1984092));
+            }
+
+            response.complete(billResponse(1984092));
+
+            for (var future : futures) {
+                assertEquals(1984092, future.get(5, TimeUnit.SECONDS).getBillId());
+            }
+            assertEquals(1984092, service.getBillAsync(1984092).get(5, TimeUnit.SECONDS).getBillId());
+            assertEquals(1, requests.get());
+            assertTrue(service.getCache().presentAndValid("getbill/1984092"));
+        }
+    }
+
+    @Test
+    void testFailedAsyncRequestsAreNotCached() throws Exception {
+        var requests = new AtomicInteger();
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(tempDir, objectMapper, 60))
+                .withObjectMapper(objectMapper);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+                return requests.incrementAndGet() == 1
+                        ? CompletableFuture.failedFuture(new LegiscanException("Legiscan is down"))
+                        : CompletableFuture.completedFuture(billResponse(1984092));
+            }
+        }) {
+            var failure = assertThrows(ExecutionException.class, () -> service.getBillAsync(1984092).get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof LegiscanException);
+            assertTrue(service.inFlight.isEmpty());
+            assertFalse(service.getCache().presentAndValid("getbill/1984092"));
+
+            assertEquals(1984092, service.getBillAsync(1984092).get(5, TimeUnit.SECONDS).getBillId());
+            assertEquals(2, requests.get());
+        }
+    }
+
+    @Test
+    void testAsyncRequestsRecheckTheCacheOnceInFlight() throws Exception {
+        var requests = new AtomicInteger();
+        var misses = new AtomicInteger();
+
+        // Misses once, as though another caller cached the bill just after our lookup
+        var cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60) {
+            @Override
+            public Optional<LegiscanResponse> getOrExpire(String key) {
+                if (misses.getAndIncrement() == 0) {
+                    put(key, billResponse(1984092, "cached"));
+                    return Optional.empty();
+                }
+                return super.getOrExpire(key);
+            }
+        };
+
+        var builder = CachedLegiscanService.builder("fake-api-key").withCache(cache).withObjectMapper(objectMapper);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+                requests.incrementAndGet();
+                return CompletableFuture.completedFuture(billResponse(1984092, "fetched"));
+            }
+        }) {
+            assertEquals("cached", service.getBillAsync(1984092).get(5, TimeUnit.SECONDS).getChangeHash());
+            assertEquals(0, requests.get());
+            assertTrue(service.inFlight.isEmpty());
+        }
+    }
+
+    @Test
+    void testAsyncRequestsWhichThrowAreNotLeftInFlight() throws Exception {
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(tempDir, objectMapper, 60))
+                .withObjectMapper(objectMapper);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+                throw new LegiscanException("Could not build request");
+            }
+        }) {
+            var failure = assertThrows(ExecutionException.class, () -> service.getBillAsync(1984092).get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof LegiscanException);
+            assertTrue(service.inFlight.isEmpty());
+        }
+    }
+
+    @Test
+    void testStaleEntriesAreServedWhileOneRefreshRuns() throws Exception {
+        var cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        var requests = new AtomicInteger();
+        var refresh = new CompletableFuture<LegiscanResponse>();
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(cache)
+                .withObjectMapper(objectMapper)
+                .withStaleWhileRevalidate(Duration.ofHours(1));
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public CompletableFuture<LegiscanResponse> makeRequestAsync(String url) {
+                requests.incrementAndGet();
+                return refresh;
+            }
+        }) {
+            String key = LegiscanBillView.getCacheKey(1984092);
+            writeEntry(cache, key, billResponse(1984092, "old"), Instant.now().getEpochSecond() - 120, 60);
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals("old", service.getBill(1984092).getChangeHash());
+            }
+            assertEquals(1, requests.get());
+
+            // Completes once the refreshed bill has been cached
+            var refreshed = service.inFlight.get(key);
+            refresh.complete(billResponse(1984092, "new"));
+            refreshed.get(5, TimeUnit.SECONDS);
+
+            assertEquals("new", service.getBill(1984092).getChangeHash());
+            assertEquals("new", service.getBillAsync(1984092).get(5, TimeUnit.SECONDS).getChangeHash());
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void testEntriesBeyondMaxStalenessBlock() throws Exception {
+        var cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        var requests = new AtomicInteger();
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(cache)
+                .withObjectMapper(objectMapper)
+                .withStaleWhileRevalidate(Duration.ofMinutes(1));
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public LegiscanResponse makeRequest(String url) {
+                requests.incrementAndGet();
+                return billResponse(1984092, "new");
+            }
+        }) {
+            writeEntry(cache, LegiscanBillView.getCacheKey(1984092), billResponse(1984092, "old"), Instant.now().getEpochSecond() - 3600, 60);
+
+            assertEquals("new", service.getBill(1984092).getChangeHash());
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void testExpiredBillsUnchangedInTheMasterListAreRestamped() throws Exception {
+        var cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        var requests = new AtomicInteger();
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(cache)
+                .withObjectMapper(objectMapper)
+                .withChangeHashRevalidation(true);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public LegiscanResponse makeRequest(String url) {
+                requests.incrementAndGet();
+                return billResponse(2, "new");
+            }
+        }) {
+            // Master lists fetched by getMasterListRaw are cached under the key the revalidation reads
+            assertEquals(LegiscanMasterListView.getRawCacheKey(7), service.cacheKeyFromUrl(service.buildUrl("getMasterListRaw", "id", "7")));
+
+            long expired = Instant.now().getEpochSecond() - 120;
+            writeEntry(cache, LegiscanBillView.getCacheKey(1), billResponse(1, "same"), expired, 60);
+            writeEntry(cache, LegiscanBillView.getCacheKey(2), billResponse(2, "old"), expired, 60);
+
+            var masterlist = new LegiscanMasterListView();
+            masterlist.setBills(Map.of("0", billSummary(1, "same"), "1", billSummary(2, "new")));
+            var response = new LegiscanResponse();
+            response.setMasterlist(masterlist);
+            cache.put(LegiscanMasterListView.getRawCacheKey(7), response);
+
+            assertEquals("same", service.getBill(1).getChangeHash());
+            assertEquals(0, requests.get());
+            assertTrue(cache.presentAndValid(LegiscanBillView.getCacheKey(1)));
+
+            assertEquals("new", service.getBill(2).getChangeHash());
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void testResponsesAreStreamedFromTheBody() throws Exception {
+        var server = legiscanServer();
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(tempDir, objectMapper, 60))
+                .withObjectMapper(objectMapper)
+                .withRetryPolicy(RetryPolicy.none());
+
+        try (var service = new CachedLegiscanService(builder)) {
+            String base = "http://localhost:" + server.getAddress().getPort();
+
+            assertEquals("streamed", service.makeRequest(base + "/bill").getBill().getChangeHash());
+            assertEquals("streamed", service.makeRequestAsync(base + "/bill").get(5, TimeUnit.SECONDS).getBill().getChangeHash());
+
+            var alert = assertThrows(LegiscanException.class, () -> service.makeRequest(base + "/alert"));
+            assertTrue(alert.getMessage().contains("Unknown bill id"));
+
+            var missing = assertThrows(LegiscanException.class, () -> service.makeRequest(base + "/missing"));
+            assertTrue(missing.getCause().getMessage().contains("HTTP 404: not here"));
+
+            var asyncAlert = assertThrows(ExecutionException.class, () -> service.makeRequestAsync(base + "/alert").get(5, TimeUnit.SECONDS));
+            assertTrue(asyncAlert.getCause() instanceof LegiscanException);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testDatasetsAreBulkLoadedInParallel() throws Exception {
+        var archive = tempDir.toPath().resolve("dataset.zip");
+        var masterlist = new LegiscanMasterListView();
+
+        try (var zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (int id = 1; id <= 1200; id++) {
+                zipEntry(zip, "CO/2024/bill/" + id + ".json", "{\"bill\":{\"bill_id\":" + id + ",\"change_hash\":\"h" + id + "\"}}");
+                masterlist.getBills().put(String.valueOf(id), billSummary(id, id == 5 ? "cached" : "h" + id));
+            }
+            for (int id = 1; id <= 300; id++) {
+                zipEntry(zip, "CO/2024/people/" + id + ".json", "{\"person\":{\"people_id\":" + id + "}}");
+                zipEntry(zip, "CO/2024/vote/" + id + ".json", "{\"roll_call\":{\"roll_call_id\":" + id + "}}");
+            }
+        }
+
+        var cache = new FileSystemLegiscanCache(tempDir, objectMapper, 60);
+        cache.put("getbill/5", billResponse(5, "cached"));
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(cache)
+                .withObjectMapper(objectMapper)
+                .withBulkLoadParallelism(4);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            public Path getDatasetArchive(LegiscanDatasetView dataset, String format) {
+                return archive;
+            }
+
+            @Override
+            public LegiscanMasterListView getMasterListRaw(int sessionId) {
+                return masterlist;
+            }
+
+            @Override
+            public LegiscanResponse makeRequest(String url) {
+                throw new AssertionError("Every bill should have been loaded from the dataset: " + url);
+            }
+        }) {
+            var dataset = new LegiscanDatasetView();
+            dataset.setSessionId(7);
+            dataset.setSessionName("2024 Regular Session");
+
+            var cached = service.cacheDataset(dataset);
+
+            assertEquals(1200, cached.getBills().size());
+            assertEquals(300, cached.getPeople().size());
+            assertEquals(300, cached.getVotes().size());
+            assertTrue(cached.getFailures().isEmpty());
+
+            // Bills already in the cache may be newer than the dataset, so they are kept
+            assertEquals("cached", cached.getBills().get(5).getChangeHash());
+            assertEquals("h1200", service.getChangeHashIndex().get(1200).get());
+            assertTrue(cache.presentAndValid("getrollcall/300"));
+        }
+    }
+
+    @Test
+    void testRawDatasetArchivesAreNotNamedAfterTheAccessKey() throws Exception {
+        var downloads = new AtomicInteger();
+        var datasetDir = new File(tempDir, "datasets");
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60))
+                .withObjectMapper(objectMapper)
+                .withDatasetDirectory(datasetDir);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            @SneakyThrows
+            public Path downloadDatasetRaw(int sessionId, String accessKey, String format, Path target) {
+                downloads.incrementAndGet();
+                Files.write(target, new byte[] { 'P', 'K' });
+                return target;
+            }
+        }) {
+            assertEquals(2, service.getDatasetRaw(2100, "s3cr3t-access-key", "json").length);
+            assertEquals(2, service.getDatasetRaw(2100, "s3cr3t-access-key", "json").length);
+            assertEquals(1, downloads.get());
+
+            try (var files = Files.list(datasetDir.toPath())) {
+                var names = files.map(path -> path.getFileName().toString()).toList();
+
+                assertEquals(1, names.size());
+                assertTrue(names.get(0).startsWith("raw-2100-") && names.get(0).endsWith(".json.zip"), names.get(0));
+                assertFalse(names.get(0).contains("s3cr3t"), names.get(0));
+            }
+
+            // Each access key gets its own archive
+            service.getDatasetRaw(2100, "another-access-key", "json");
+            assertEquals(2, downloads.get());
+        }
+    }
+
+    @Test
+    void testDatasetArchivesAreNotNamedAfterTheAccessKey() throws Exception {
+        var datasetDir = new File(tempDir, "datasets");
+
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60))
+                .withObjectMapper(objectMapper)
+                .withDatasetDirectory(datasetDir);
+
+        try (var service = new CachedLegiscanService(builder) {
+            @Override
+            @SneakyThrows
+            public Path downloadDatasetRaw(int sessionId, String accessKey, String format, Path target) {
+                Files.write(target, new byte[] { 'P', 'K' });
+                return target;
+            }
+        }) {
+            var dataset = new LegiscanDatasetView();
+            dataset.setSessionId(2100);
+            dataset.setAccessKey("s3cr3t-access-key");
+
+            String name = service.getDatasetArchive(dataset, "../json").getFileName().toString();
+
+            assertEquals(datasetDir.toPath(), service.getDatasetArchive(dataset, "../json").getParent());
+            assertTrue(name.startsWith("2100-key-") && name.endsWith(".~2E~2E~2Fjson.zip"), name);
+            assertFalse(name.contains("s3cr3t"), name);
+        }
+    }
+
+    @Test
+    void testEachBuildResolvesItsOwnCacheStack() throws Exception {
+        var fileCache = new FileSystemLegiscanCache(new File(tempDir, "cache"), objectMapper, 60);
+        var builder = CachedLegiscanService.builder("fake-api-key")
+                .withCache(fileCache)
+                .withObjectMapper(objectMapper)
+                .withMemoryCache(10);
+
+        try (var first = builder.build(); var second = builder.build()) {
+            var firstIndexed = (IndexedLegiscanCache) ((TieredLegiscanCache) first.getCache()).getDelegate();
+            var secondIndexed = (IndexedLegiscanCache) ((TieredLegiscanCache) second.getCache()).getDelegate();
+
+            // Both wrap the configured cache directly, rather than the first service's stack
+            assertSame(fileCache, firstIndexed.getDelegate());
+            assertSame(fileCache, secondIndexed.getDelegate());
+            assertNotSame(first.getChangeHashIndex(), second.getChangeHashIndex());
+            assertSame(first.getChangeHashIndex(), firstIndexed.getIndex());
+        }
+    }
+
+    private static void zipEntry(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /**
+     * Serves a bill at /bill, an alert at /alert and a 404 for anything else.
+     */
+    private static HttpServer legiscanServer() throws Exception {
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            int status = path.equals("/bill") || path.equals("/alert") ? 200 : 404;
+            String body = switch (path) {
+                case "/bill" -> "{\"status\":\"OK\",\"bill\":{\"bill_id\":1984092,\"change_hash\":\"streamed\"}}";
+                case "/alert" -> "{\"status\":\"ERROR\",\"alert\":{\"message\":\"Unknown bill id\"}}";
+                default -> "not here";
+            };
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (var out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+
+        server.start();
+        return server;
+    }
+
+    private void writeEntry(FileSystemLegiscanCache cache, String key, LegiscanResponse value, long timestamp, long ttlSecs) throws Exception {
+        File file = new File(cache.entryDirectory(key), "cached.json");
+        file.getParentFile().mkdirs();
+        objectMapper.writeValue(file, new CachedEntry<Object>(value, timestamp, ttlSecs));
+    }
+
+    private static LegiscanResponse billResponse(int billId) {
+        return billResponse(billId, "abc");
+    }
+
+    private static LegiscanResponse billResponse(int billId, String changeHash) {
+        var bill = new LegiscanBillView();
+        bill.setBillId(billId);
+        bill.setSessionId(7);
+        bill.setChangeHash(changeHash);
+
+        var response = new LegiscanResponse();
+        response.setBill(bill);
+        return response;
+    }
+
+    private static BillSummary billSummary(int billId, String changeHash) {
+        var summary = new BillSummary();
+        summary.setBillId(billId);
+        summary.setChangeHash(changeHash);
+        return summary;
+    }
+}
@@ -0,0 +1,37 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    void testRetryAfterTakesPrecedenceOverBackoff() {
+        var policy = RetryPolicy.defaults();
+
+        assertEquals(7000, policy.backoffMillis(1, "7"));
+
+        long backoff = policy.backoffMillis(3, null);
+        assertTrue(backoff >= 1000 && backoff <= 2000, "backoff was " + backoff);
+    }
+
+    @Test
+    void testRetryAfterIsClampedToMaxDelay() {
+        var policy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(5));
+
+        assertEquals(5000, policy.backoffMillis(1, "3600"));
+        assertEquals(0, policy.backoffMillis(1, "-1"));
+    }
+
+    @Test
+    void testBackoffIsCappedAtMaxDelay() {
+        var policy = new RetryPolicy(10, Duration.ofMillis(100), Duration.ofSeconds(1));
+
+        long backoff = policy.backoffMillis(9, null);
+        assertTrue(backoff >= 500 && backoff <= 1000, "backoff was " + backoff);
+    }
+}
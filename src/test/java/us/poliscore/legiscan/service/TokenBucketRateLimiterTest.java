@@ -0,0 +1,33 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    void testBurstIsImmediate() {
+        var limiter = new TokenBucketRateLimiter(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+    }
+
+    @Test
+    void testReservationsBeyondBurstAreSpacedAtRate() {
+        var limiter = new TokenBucketRateLimiter(10, 1);
+
+        assertEquals(0, limiter.reserve());
+
+        long first = limiter.reserve();
+        long second = limiter.reserve();
+
+        assertTrue(first > TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100), "first wait was " + first);
+        assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(50) && second <= TimeUnit.MILLISECONDS.toNanos(200), "second wait was " + second);
+    }
+}